@@ -0,0 +1,268 @@
+package NOAAsoap;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+
+    Reads and writes the binary columnar output format (-outf BIN).
+    All numbers are little endian, and each column starts on an 8 byte boundary so it can be read straight from a mapped buffer:
+
+        "NOAB"                                   magic
+        int     version                          1
+        int     rowCount
+        int     columnCount
+        int     valueBytes                       8 (double) or 4 (float)
+        int     dataOffset                       offset of the month column
+        double  latitude, longitude              NaN if unknown
+        string  stationId, stationName, state    (unsigned short length, then UTF-8 bytes)
+        string  column name * columnCount
+        padding to dataOffset
+        int     month * rowCount                 NOAAXML month keys (year * 12 + month - 1)
+        padding to 8 bytes
+        value   column 0 * rowCount, padded to 8 bytes
+        value   column 1 * rowCount, ...         missing values are NaN
+
+    A reader maps the file once, the accessors copy columns into primitive arrays without any parsing, or into a StationSeries.
+
+**/
+public class BinarySeries {
+    public static final int MAGIC = 0x42414F4E; //"NOAB" read as a little endian int
+    public static final int VERSION = 1;
+    public static final int VALUE_BYTES_DOUBLE = 8;
+    public static final int VALUE_BYTES_FLOAT = 4;
+
+    private static final int FIXED_HEADER_BYTES = 40;
+
+    private ByteBuffer mBuffer;
+    private int mRowCount, mColumnCount, mValueBytes, mDataOffset;
+    private double mLatitude, mLongitude;
+    private String mStation, mStationName, mState;
+    private String[] mColumns;
+
+    private BinarySeries(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION) {
+            throw new IOException("Not a NOAAQuery binary series (version " + VERSION + ")");
+        }
+        mRowCount = mBuffer.getInt(8);
+        mColumnCount = mBuffer.getInt(12);
+        mValueBytes = mBuffer.getInt(16);
+        mDataOffset = mBuffer.getInt(20);
+        mLatitude = mBuffer.getDouble(24);
+        mLongitude = mBuffer.getDouble(32);
+
+        mBuffer.position(FIXED_HEADER_BYTES);
+        mStation = getString(mBuffer);
+        mStationName = getString(mBuffer);
+        mState = getString(mBuffer);
+        mColumns = new String[mColumnCount];
+        for(int i = 0; i < mColumnCount; i++) {
+            mColumns[i] = getString(mBuffer);
+        }
+    }
+
+    //Maps the file into memory, the file is not read until its columns are
+    public static BinarySeries open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new BinarySeries(mapped);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+    public String[] getColumns() {
+        return mColumns.clone();
+    }
+    public int getColumnIndex(String column) {
+        for(int i = 0; i < mColumns.length; i++) {
+            if(mColumns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    public String getStation() {
+        return mStation;
+    }
+    public String getStationName() {
+        return mStationName;
+    }
+    public String getState() {
+        return mState;
+    }
+    public double getLatitude() {
+        return mLatitude;
+    }
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public int[] readMonths() {
+        int[] months = new int[mRowCount];
+        ByteBuffer view = mBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(mDataOffset);
+        view.asIntBuffer().get(months);
+        return months;
+    }
+
+    public double[] readColumn(int column) {
+        double[] values = new double[mRowCount];
+        ByteBuffer view = mBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(columnOffset(column));
+        if(mValueBytes == VALUE_BYTES_DOUBLE) {
+            view.asDoubleBuffer().get(values);
+        } else {
+            for(int i = 0; i < mRowCount; i++) {
+                values[i] = view.getFloat();
+            }
+        }
+        return values;
+    }
+
+    //Single values, read from the mapped file without copying a column (eg. to walk many files row by row, see StationMatrix)
+    public int getMonth(int row) {
+        return mBuffer.getInt(mDataOffset + 4 * row);
+    }
+    public double getValue(int column, int row) {
+        int offset = columnOffset(column) + mValueBytes * row;
+        return (mValueBytes == VALUE_BYTES_DOUBLE) ? mBuffer.getDouble(offset) : mBuffer.getFloat(offset);
+    }
+
+    //Loads the whole file into a StationSeries, an inferred column becomes the series' inferred flags
+    public StationSeries toSeries() {
+        int inferredColumn = getColumnIndex(NOAAXML.ELEM_INFERRED);
+        String[] columns = new String[(inferredColumn < 0) ? mColumnCount : mColumnCount - 1];
+        for(int c = 0, i = 0; c < mColumnCount; c++) {
+            if(c != inferredColumn) {
+                columns[i++] = mColumns[c];
+            }
+        }
+        StationSeries series = new StationSeries(columns, mRowCount);
+        series.setStationId(mStation);
+        series.setStationName(mStationName);
+        series.setState(mState);
+        series.setLatitude(mLatitude);
+        series.setLongitude(mLongitude);
+
+        int[] months = readMonths();
+        double[][] values = new double[mColumnCount][];
+        for(int c = 0; c < mColumnCount; c++) {
+            values[c] = readColumn(c);
+        }
+        for(int row = 0; row < mRowCount; row++) {
+            series.addRow(months[row]);
+            for(int c = 0, i = 0; c < mColumnCount; c++) {
+                if(c == inferredColumn) {
+                    series.setInferred(row, values[c][row] > 0);
+                } else {
+                    series.setValue(i++, row, values[c][row]);
+                }
+            }
+        }
+        return series;
+    }
+
+    private int columnOffset(int column) {
+        int offset = align(mDataOffset + 4 * mRowCount);
+        return offset + column * align(mValueBytes * mRowCount);
+    }
+
+    /* Writes a series, with the inferred flags as an extra 0/1 column named after NOAAXML.ELEM_INFERRED if includeInferred is set
+    |  The file is written in a single pass from one buffer
+    |*/
+    public static void write(File file, StationSeries series, boolean includeInferred, int valueBytes) throws IOException {
+        String[] columns = series.getColumns();
+        int columnCount = columns.length + (includeInferred ? 1 : 0);
+        int rowCount = series.size();
+
+        byte[][] strings = new byte[3 + columnCount][];
+        strings[0] = bytes(series.getStationId());
+        strings[1] = bytes(series.getStationName());
+        strings[2] = bytes(series.getState());
+        for(int i = 0; i < columns.length; i++) {
+            strings[3 + i] = bytes(columns[i]);
+        }
+        if(includeInferred) {
+            strings[3 + columns.length] = bytes(NOAAXML.ELEM_INFERRED);
+        }
+        int headerBytes = FIXED_HEADER_BYTES;
+        for(byte[] s : strings) {
+            headerBytes += 2 + s.length;
+        }
+        int dataOffset = align(headerBytes);
+        int columnBytes = align(valueBytes * rowCount);
+        int total = align(dataOffset + 4 * rowCount) + columnCount * columnBytes;
+
+        ByteBuffer buffer = ByteBuffer.allocate(total).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(rowCount).putInt(columnCount).putInt(valueBytes).putInt(dataOffset);
+        buffer.putDouble(series.getLatitude()).putDouble(series.getLongitude());
+        for(byte[] s : strings) {
+            buffer.putShort((short)s.length).put(s);
+        }
+        buffer.position(dataOffset);
+        buffer.asIntBuffer().put(series.monthArray(), 0, rowCount);
+        int offset = align(dataOffset + 4 * rowCount);
+        for(int c = 0; c < columns.length; c++) {
+            buffer.position(offset + c * columnBytes);
+            double[] values = series.valueArray(c);
+            if(valueBytes == VALUE_BYTES_DOUBLE) {
+                buffer.asDoubleBuffer().put(values, 0, rowCount);
+            } else {
+                for(int i = 0; i < rowCount; i++) {
+                    buffer.putFloat((float)values[i]);
+                }
+            }
+        }
+        if(includeInferred) {
+            buffer.position(offset + columns.length * columnBytes);
+            for(int i = 0; i < rowCount; i++) {
+                double flag = series.isInferred(i) ? 1 : 0;
+                if(valueBytes == VALUE_BYTES_DOUBLE) {
+                    buffer.putDouble(flag);
+                } else {
+                    buffer.putFloat((float)flag);
+                }
+            }
+        }
+        buffer.position(0);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = (s == null) ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+        return (b.length > 0xFFFF) ? java.util.Arrays.copyOf(b, 0xFFFF) : b;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] b = new byte[length];
+        buffer.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
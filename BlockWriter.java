@@ -0,0 +1,184 @@
+package NOAAsoap;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+
+    Output file writer which encodes text straight into a direct ByteBuffer and writes it through a FileChannel in large blocks.
+    Text is encoded exactly as String.getBytes() would encode it, so the bytes written do not change, only the number of writes.
+
+    Given a writer thread, a full block is handed to that thread while encoding carries on in a second block, so disk I/O
+    never blocks the thread which is parsing. At most one block per writer is in flight.
+
+    Blocks are pooled and reused between writers. A writer is not thread safe.
+
+**/
+public class BlockWriter {
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> blockPool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private ExecutorService mWriterThread;
+    private ByteBuffer mBlock;
+    private ByteBuffer mPendingBlock = null;
+    private Future<Void> mPending = null;
+    //counted by whichever thread writes the block, read by the caller
+    private final AtomicLong mBlocksWritten = new AtomicLong();
+
+    //writerThread may be null, blocks are then written by the calling thread
+    public BlockWriter(File file, boolean append, ExecutorService writerThread) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        if(append) {
+            mChannel.position(mChannel.size());
+        } else {
+            mFile.setLength(0);
+        }
+        mWriterThread = writerThread;
+        mBlock = acquireBlock();
+    }
+
+    public void write(CharSequence text) throws IOException {
+        int length = text.length();
+        for(int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if(c < 0x80) {
+                if(!mBlock.hasRemaining()) {
+                    flushBlock();
+                }
+                mBlock.put((byte)c);
+            } else {
+                //non-ASCII text is rare, a run of it is encoded by the platform charset like getBytes() would
+                int end = i + 1;
+                while(end < length && text.charAt(end) >= 0x80) {
+                    end++;
+                }
+                write(text.subSequence(i, end).toString().getBytes());
+                i = end - 1;
+            }
+        }
+    }
+
+    public void write(char c) throws IOException {
+        if(c < 0x80) {
+            if(!mBlock.hasRemaining()) {
+                flushBlock();
+            }
+            mBlock.put((byte)c);
+        } else {
+            write(String.valueOf(c));
+        }
+    }
+
+    public void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        while(offset < end) {
+            if(!mBlock.hasRemaining()) {
+                flushBlock();
+            }
+            int run = Math.min(mBlock.remaining(), end - offset);
+            mBlock.put(bytes, offset, run);
+            offset += run;
+        }
+    }
+
+    //Writes everything encoded so far and waits for it to reach the channel
+    public void flush() throws IOException {
+        flushBlock();
+        awaitPending();
+    }
+
+    public void close() throws IOException {
+        try {
+            if(mBlock != null) {
+                flush();
+            }
+        } finally {
+            if(mBlock != null) {
+                releaseBlock(mBlock);
+                mBlock = null;
+            }
+            mFile.close();
+        }
+    }
+
+    //The number of blocks written to the channel, each one is a single write (short of a partial write by the OS)
+    public long getBlocksWritten() {
+        return mBlocksWritten.get();
+    }
+
+    private void flushBlock() throws IOException {
+        if(mBlock.position() == 0) {
+            return;
+        }
+        mBlock.flip();
+        if(mWriterThread == null) {
+            writeBlock(mBlock);
+            mBlock.clear();
+            return;
+        }
+        awaitPending();
+        final ByteBuffer block = mBlock;
+        mPendingBlock = block;
+        mPending = mWriterThread.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                writeBlock(block);
+                return null;
+            }
+        });
+        mBlock = acquireBlock();
+    }
+
+    private void writeBlock(ByteBuffer block) throws IOException {
+        while(block.hasRemaining()) {
+            mChannel.write(block);
+        }
+        mBlocksWritten.incrementAndGet();
+    }
+
+    private void awaitPending() throws IOException {
+        if(mPending == null) {
+            return;
+        }
+        Future<Void> pending = mPending;
+        ByteBuffer block = mPendingBlock;
+        mPending = null;
+        mPendingBlock = null;
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            //the block may still be in use by the writer thread, so it is not returned to the pool
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the writer thread");
+        } catch (ExecutionException e) {
+            releaseBlock(block);
+            throw (e.getCause() instanceof IOException) ? (IOException)e.getCause() : new IOException(e.getCause());
+        }
+        releaseBlock(block);
+    }
+
+    private static ByteBuffer acquireBlock() {
+        ByteBuffer block = blockPool.poll();
+        return (block == null) ? ByteBuffer.allocateDirect(BLOCK_SIZE) : block;
+    }
+
+    private static void releaseBlock(ByteBuffer block) {
+        block.clear();
+        blockPool.offer(block);
+    }
+}
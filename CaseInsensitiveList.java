@@ -8,6 +8,7 @@ import java.util.ArrayList;
 
 **/
 public class CaseInsensitiveList extends ArrayList<String> {
+    private static final long serialVersionUID = 1L;
 
     public CaseInsensitiveList(List<String> list) {
         for(String s : list) {
@@ -0,0 +1,60 @@
+package NOAAsoap;
+
+/**
+
+    ResponseHandler which passes everything on to another handler, and adds the station described by the response's metadata
+    to the station catalog (see StationCatalog) once the response has been read. A faulted response is not recorded.
+
+**/
+public class CatalogRecorder implements ResponseHandler {
+    private StationCatalog mCatalog;
+    private ResponseHandler mHandler;
+    private String mId = null, mName = null, mLatitude = null, mLongitude = null, mState = null;
+
+    public CatalogRecorder(StationCatalog catalog, ResponseHandler handler) {
+        mCatalog = catalog;
+        mHandler = handler;
+    }
+
+    public void startResponse() {
+        mHandler.startResponse();
+    }
+
+    public void metadata(String tagName, String value) {
+        if(NOAAXML.ELEM_STATION_ID.equals(tagName)) {
+            mId = value;
+        } else if(NOAAXML.ELEM_STATION_NAME.equals(tagName)) {
+            mName = value;
+        } else if(NOAAXML.ELEM_LATITUDE.equals(tagName)) {
+            mLatitude = value;
+        } else if(NOAAXML.ELEM_LONGITUDE.equals(tagName)) {
+            mLongitude = value;
+        } else if(NOAAXML.ELEM_STATE.equals(tagName)) {
+            mState = value;
+        }
+        mHandler.metadata(tagName, value);
+    }
+
+    public void startItem() {
+        mHandler.startItem();
+    }
+
+    public void itemValue(String tagName, String value) {
+        mHandler.itemValue(tagName, value);
+    }
+
+    public void endItem() {
+        mHandler.endItem();
+    }
+
+    public void endResponse() {
+        if(!mCatalog.update(mId, mName, mLatitude, mLongitude, mState)) {
+            NOAAQuery.printDebug(() -> "Station " + mId + " has no readable position, it was not added to the catalog");
+        }
+        mHandler.endResponse();
+    }
+
+    public void fault(String faultString, String faultActor) {
+        mHandler.fault(faultString, faultActor);
+    }
+}
@@ -0,0 +1,130 @@
+package NOAAsoap;
+
+/**
+
+    Adaptive (AIMD) limit on the number of requests in flight to the NOAA endpoint.
+    Every request takes a Permit before it is sent and releases it once its response has been read, reporting whether it was
+    dropped (a SOAP fault, usually throttling, or an IO error). The limit then adapts to what the server tolerates:
+
+        additive increase        a successful request, no slower than tolerance * the average latency, adds 1/limit
+                                 (about one more request in flight for every full window of successes)
+        multiplicative decrease  a dropped request, or one slower than tolerance * the average latency, multiplies the limit by
+                                 the backoff ratio, at most once per window: requests sent before the last decrease cannot
+                                 decrease it again, they were sent at the old limit
+
+    The limit never leaves 1..maximum, the average latency is an exponential moving average of every request.
+
+**/
+public class ConcurrencyLimiter {
+    public static final double DEFAULT_BACKOFF = 0.75;
+    public static final double DEFAULT_TOLERANCE = 2.0;
+    private static final double LATENCY_SMOOTHING = 0.05;
+
+    private final int mMaximum;
+    private final double mBackoff;
+    private final double mTolerance;
+
+    private double mLimit;
+    private int mInFlight = 0;
+    private long mSequence = 0;
+    private long mLastDecrease = -1;
+    private double mAverageLatency = -1;
+    private long mDropped = 0, mCompleted = 0;
+
+    public ConcurrencyLimiter(int initial, int maximum) {
+        this(initial, maximum, DEFAULT_BACKOFF, DEFAULT_TOLERANCE);
+    }
+
+    public ConcurrencyLimiter(int initial, int maximum, double backoff, double tolerance) {
+        if(maximum < 1 || backoff <= 0 || backoff >= 1 || tolerance < 1) {
+            throw new IllegalArgumentException("Invalid limiter settings (maximum " + maximum + ", backoff " + backoff + ", tolerance " + tolerance + ")");
+        }
+        mMaximum = maximum;
+        mBackoff = backoff;
+        mTolerance = tolerance;
+        mLimit = Math.max(1, Math.min(initial, maximum));
+    }
+
+    //Blocks until the number of requests in flight is below the current limit
+    public synchronized Permit acquire() throws InterruptedException {
+        while(mInFlight >= getLimit()) {
+            wait();
+        }
+        mInFlight++;
+        return new Permit(mSequence++, System.nanoTime());
+    }
+
+    //The current limit, the number of requests which may be in flight at once
+    public synchronized int getLimit() {
+        return (int)mLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return mInFlight;
+    }
+
+    //Average latency of a request in nanoseconds, -1 before the first request completes
+    public synchronized long getAverageLatency() {
+        return (long)mAverageLatency;
+    }
+
+    public synchronized long getCompleted() {
+        return mCompleted;
+    }
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    private synchronized void release(Permit permit, boolean dropped) {
+        long latency = System.nanoTime() - permit.mStart;
+        mInFlight--;
+        mCompleted++;
+        if(dropped) {
+            mDropped++;
+        }
+
+        boolean slow = mAverageLatency > 0 && latency > mTolerance * mAverageLatency;
+        mAverageLatency = (mAverageLatency < 0) ? latency : mAverageLatency + LATENCY_SMOOTHING * (latency - mAverageLatency);
+
+        int before = getLimit();
+        if(dropped || slow) {
+            if(permit.mNumber >= mLastDecrease) {
+                mLimit = Math.max(1, mLimit * mBackoff);
+                mLastDecrease = mSequence;
+            }
+        } else if(mInFlight + 1 >= before) {
+            //only a limit which is actually reached is raised, an idle limit would otherwise grow without being tested
+            mLimit = Math.min(mMaximum, mLimit + 1 / mLimit);
+        }
+        int after = getLimit();
+        if(after != before) {
+            NOAAQuery.printDebug(() -> "Concurrency limit " + before + " -> " + after + (dropped ? " (dropped request)" : slow ? " (slow response, " + latency / 1000000 + " ms)" : ""));
+        }
+        notifyAll();
+    }
+
+    //A request in flight, must be released exactly once
+    public class Permit {
+        private final long mNumber;
+        private final long mStart;
+        private boolean mReleased = false;
+
+        private Permit(long number, long start) {
+            mNumber = number;
+            mStart = start;
+        }
+
+        //dropped if the request failed or was faulted
+        public void release(boolean dropped) {
+            if(!mReleased) {
+                mReleased = true;
+                ConcurrencyLimiter.this.release(this, dropped);
+            }
+        }
+    }
+
+    public synchronized String toString() {
+        return "ConcurrencyLimiter: limit " + getLimit() + " of " + mMaximum + ", " + mInFlight + " in flight, " + mCompleted + " completed, " +
+               mDropped + " dropped, average latency " + ((mAverageLatency < 0) ? "-" : (long)(mAverageLatency / 1000000) + " ms");
+    }
+}
@@ -0,0 +1,146 @@
+package NOAAsoap;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+
+    Asynchronous console output. Once started, lines are put into a bounded ring buffer (an ArrayBlockingQueue) and a
+    background thread prints them in batches, so worker threads never wait on the console or on each other's output.
+    A full buffer makes the caller wait for room rather than drop output. Lines keep the order they were logged in,
+    across standard output and standard error.
+
+    Before start() and after stop() lines are printed directly. stop() prints everything which is still buffered, it is also
+    run by a shutdown hook, so output logged before System.exit() is not lost.
+
+    Whether a line is logged at all is decided by the caller (see the print methods of NOAAQuery), this class only carries it.
+
+**/
+public class ConsoleLog {
+    public static final int DEFAULT_CAPACITY = 8192;
+    private static final int BATCH = 512;
+    private static final Line STOP = new Line(null, false);
+
+    private static volatile ArrayBlockingQueue<Line> queue = null;
+    private static Thread drainer = null;
+    private static boolean hookAdded = false;
+
+    private static class Line {
+        private final String mText;
+        private final boolean mError;
+
+        private Line(String text, boolean error) {
+            mText = text;
+            mError = error;
+        }
+    }
+
+    //Prints a line to standard output
+    public static void out(String text) {
+        log(text, false);
+    }
+
+    //Prints a line to standard error
+    public static void err(String text) {
+        log(text, true);
+    }
+
+    private static void log(String text, boolean error) {
+        ArrayBlockingQueue<Line> lines = queue;
+        if(lines != null) {
+            try {
+                lines.put(new Line(text, error));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        (error ? System.err : System.out).println(text);
+    }
+
+    public static synchronized void start(int capacity) {
+        if(queue != null) {
+            return;
+        }
+        final ArrayBlockingQueue<Line> lines = new ArrayBlockingQueue<Line>(capacity);
+        drainer = new Thread(new Runnable() {
+            public void run() {
+                drain(lines);
+            }
+        }, "ConsoleLog");
+        drainer.setDaemon(true);
+        drainer.start();
+        queue = lines;
+        if(!hookAdded) {
+            hookAdded = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    stop();
+                }
+            }));
+        }
+    }
+
+    //Prints every buffered line and returns to printing directly
+    public static synchronized void stop() {
+        ArrayBlockingQueue<Line> lines = queue;
+        if(lines == null) {
+            return;
+        }
+        queue = null;
+        try {
+            lines.put(STOP);
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //lines put by a thread which picked up the queue just before it was stopped
+        List<Line> rest = new ArrayList<Line>();
+        lines.drainTo(rest);
+        print(rest);
+        drainer = null;
+    }
+
+    private static void drain(ArrayBlockingQueue<Line> lines) {
+        List<Line> batch = new ArrayList<Line>(BATCH);
+        try {
+            while(true) {
+                batch.add(lines.take());
+                lines.drainTo(batch, BATCH - 1);
+                int stop = batch.indexOf(STOP);
+                if(stop >= 0) {
+                    print(batch.subList(0, stop));
+                    return;
+                }
+                print(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            print(batch);
+        }
+    }
+
+    //Each run of lines for the same stream is printed with a single write
+    private static void print(List<Line> batch) {
+        StringBuilder sb = new StringBuilder(4096);
+        boolean error = false;
+        for(Line line : batch) {
+            if(line.mError != error && sb.length() > 0) {
+                write(sb, error);
+                sb.setLength(0);
+            }
+            error = line.mError;
+            sb.append(line.mText).append(System.lineSeparator());
+        }
+        if(sb.length() > 0) {
+            write(sb, error);
+        }
+    }
+
+    private static void write(StringBuilder sb, boolean error) {
+        PrintStream stream = error ? System.err : System.out;
+        stream.print(sb);
+        stream.flush();
+    }
+}
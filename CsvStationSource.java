@@ -0,0 +1,51 @@
+package NOAAsoap;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+
+    Station ids from a comma separated list, the first value of each line is the id, anything after it is ignored:
+
+        NOAA_ID, anything, anything, ...
+
+    Whitespace around the id is ignored, lines whose first value is not a number are skipped.
+
+**/
+public class CsvStationSource implements StationSource {
+    private BufferedReader mReader;
+
+    public CsvStationSource(Reader reader) {
+        mReader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    public String next() throws IOException {
+        String line;
+        while((line = mReader.readLine()) != null) {
+            int comma = line.indexOf(',');
+            String id = ((comma >= 0) ? line.substring(0, comma) : line).trim();
+            if(id.isEmpty()) {
+                continue;
+            }
+            if(isStationId(id)) {
+                return id;
+            }
+            NOAAQuery.printDebug("Input list contained a malformed line");
+        }
+        return null;
+    }
+
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    //Ensures that the id is some valid integer
+    static boolean isStationId(String id) {
+        try {
+            Integer.parseInt(id);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package NOAAsoap;
+
+/**
+
+    ResponseHandler which passes everything on to another handler, noting whether the response was faulted or was completed.
+    Used to tell the concurrency limiter how a request ended without depending on the kind of handler which receives it.
+
+**/
+public class FaultWatcher implements ResponseHandler {
+    private ResponseHandler mHandler;
+    private boolean mFault = false, mComplete = false;
+
+    public FaultWatcher(ResponseHandler handler) {
+        mHandler = handler;
+    }
+
+    public void startResponse() {
+        mHandler.startResponse();
+    }
+
+    public void metadata(String tagName, String value) {
+        mHandler.metadata(tagName, value);
+    }
+
+    public void startItem() {
+        mHandler.startItem();
+    }
+
+    public void itemValue(String tagName, String value) {
+        mHandler.itemValue(tagName, value);
+    }
+
+    public void endItem() {
+        mHandler.endItem();
+    }
+
+    public void endResponse() {
+        mComplete = true;
+        mHandler.endResponse();
+    }
+
+    public void fault(String faultString, String faultActor) {
+        mFault = true;
+        mHandler.fault(faultString, faultActor);
+    }
+
+    public boolean hasFault() {
+        return mFault;
+    }
+
+    //True once the end of the response element has been read
+    public boolean isComplete() {
+        return mComplete;
+    }
+}
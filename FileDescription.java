@@ -2,7 +2,7 @@ package NOAAsoap;
 
 public class FileDescription {
     public enum Format {
-        XML, CSV
+        XML, CSV, BIN
     }
 
     private String mDirectoryName, mFileName;
@@ -19,6 +19,12 @@ public class FileDescription {
         this.mFormat = format;
     }
 
+    public FileDescription(FileDescription other) {
+        this.mDirectoryName = other.mDirectoryName;
+        this.mFileName = other.mFileName;
+        this.mFormat = other.mFormat;
+    }
+
     public String getDirectoryName() {
         return mDirectoryName;
     }
@@ -47,6 +53,8 @@ public class FileDescription {
 
         if(mFormat == Format.CSV) {
             mFileName += ".dat";
+        } else if(mFormat == Format.BIN) {
+            mFileName += ".bin";
         } else {
             mFileName += ".xml";
         }
@@ -55,6 +63,8 @@ public class FileDescription {
     public String toString() {
         if(mFormat == Format.XML) {
             return "FileDescription, directory:" + mDirectoryName + ", file:" + mFileName + ", format:XML"; 
+        } else if(mFormat == Format.BIN) {
+            return "FileDescription, directory:" + mDirectoryName + ", file:" + mFileName + ", format:BIN";
         } else {
             return "FileDescription, directory:" + mDirectoryName + ", file:" + mFileName + ", format:CSV"; 
         }
@@ -0,0 +1,194 @@
+package NOAAsoap;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+
+    Default transport, built on java.net.http.HttpClient.
+    The client pools keep-alive connections and shares them between worker threads, responses are handed over as soon as
+    their headers arrive so the body is parsed while it is still being received.
+    A request which has not received its response headers within the response timeout fails with an HttpTimeoutException
+    (an IOException), so a server which accepts a connection and then stalls cannot hold a worker indefinitely.
+    The client's timeout does not cover the body, so the body is read through a WatchedInputStream: a watchdog closes it once
+    the response timeout passes without a byte arriving, and the read blocked on it fails with an HttpTimeoutException.
+
+**/
+public class HttpClientTransport implements Transport {
+    public static final String CONTENT_TYPE = "text/xml; charset=utf-8";
+    public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    public static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(120);
+
+    //one daemon thread checks every open response body, a check only compares times and closes a stalled stream
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "HttpClientTransport watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private URI mEndpoint;
+    private HttpClient mClient;
+    private Duration mResponseTimeout;
+
+    public HttpClientTransport(URI endpoint, HttpClient.Version version) {
+        this(endpoint, version, CONNECT_TIMEOUT, RESPONSE_TIMEOUT);
+    }
+
+    public HttpClientTransport(URI endpoint, HttpClient.Version version, Duration connectTimeout, Duration responseTimeout) {
+        mEndpoint = endpoint;
+        mResponseTimeout = responseTimeout;
+        mClient = HttpClient.newBuilder()
+                            .version(version)
+                            .connectTimeout(connectTimeout)
+                            .build();
+    }
+
+    public InputStream post(byte[] body, int length) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(mEndpoint)
+                                         .timeout(mResponseTimeout)
+                                         .header("Content-Type", CONTENT_TYPE)
+                                         .header("SOAPAction", NOAAXML.SOAP_ACTION)
+                                         .header("Accept-Encoding", "gzip")
+                                         .POST(HttpRequest.BodyPublishers.ofByteArray(body, 0, length))
+                                         .build();
+        HttpResponse<InputStream> response;
+        try {
+            response = mClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a response");
+        }
+
+        InputStream in = new WatchedInputStream(response.body(), mResponseTimeout);
+        if("gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(null))) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    /* Sends concurrent GET requests so that the pool holds open connections before the first query
+    |  The responses (the service's description page, or an error) are discarded
+    |*/
+    public void warm(int connections) {
+        List<CompletableFuture<HttpResponse<Void>>> pending = new ArrayList<CompletableFuture<HttpResponse<Void>>>();
+        for(int i = 0; i < connections; i++) {
+            HttpRequest request = HttpRequest.newBuilder(mEndpoint).timeout(mResponseTimeout).GET().build();
+            pending.add(mClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+        }
+        for(CompletableFuture<HttpResponse<Void>> future : pending) {
+            try {
+                future.join();
+            } catch (Exception e) {
+                NOAAQuery.printDebug(() -> "Failed to warm a connection: " + e.toString());
+            }
+        }
+    }
+
+    /**
+
+        Fails a response body which makes no progress within the timeout, rather than blocking its reader indefinitely.
+        Every read which returns data restarts the timeout, the watchdog reschedules itself for the time remaining.
+
+    **/
+    private static class WatchedInputStream extends FilterInputStream {
+        private final long mTimeoutNanos;
+        private volatile long mLastProgress;
+        private volatile boolean mTimedOut;
+        private volatile boolean mClosed;
+        private ScheduledFuture<?> mCheck;
+
+        WatchedInputStream(InputStream in, Duration timeout) {
+            super(in);
+            mTimeoutNanos = timeout.toNanos();
+            mLastProgress = System.nanoTime();
+            schedule(mTimeoutNanos);
+        }
+
+        private synchronized void schedule(long delayNanos) {
+            if(!mClosed) {
+                mCheck = WATCHDOG.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void check() {
+            long idle = System.nanoTime() - mLastProgress;
+            if(idle < mTimeoutNanos) {
+                schedule(mTimeoutNanos - idle);
+                return;
+            }
+            mTimedOut = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                NOAAQuery.printDebug(() -> "Failed to close a stalled response: " + e.toString());
+            }
+        }
+
+        //a stream closed by the watchdog may report either a failure or its end, both are turned into a timeout
+        private int progress(int count) throws IOException {
+            if(mTimedOut) {
+                throw timeout(null);
+            }
+            if(count > 0) {
+                mLastProgress = System.nanoTime();
+            }
+            return count;
+        }
+
+        private HttpTimeoutException timeout(IOException cause) {
+            HttpTimeoutException e = new HttpTimeoutException("No response data received within "
+                                                              + TimeUnit.NANOSECONDS.toMillis(mTimeoutNanos) + " ms");
+            if(cause != null) {
+                e.initCause(cause);
+            }
+            return e;
+        }
+
+        public int read() throws IOException {
+            try {
+                int b = in.read();
+                progress(b < 0 ? b : 1);
+                return b;
+            } catch (IOException e) {
+                throw (mTimedOut && !(e instanceof HttpTimeoutException)) ? timeout(e) : e;
+            }
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return progress(in.read(b, off, len));
+            } catch (IOException e) {
+                throw (mTimedOut && !(e instanceof HttpTimeoutException)) ? timeout(e) : e;
+            }
+        }
+
+        public void close() throws IOException {
+            synchronized(this) {
+                mClosed = true;
+                if(mCheck != null) {
+                    mCheck.cancel(false);
+                }
+            }
+            in.close();
+        }
+    }
+
+    public void close() {
+        //HttpClient has no close() prior to Java 21, idle pooled connections are released when the client is collected
+        mClient = null;
+    }
+}
@@ -0,0 +1,78 @@
+package NOAAsoap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+
+    Lock-free histogram of durations in nanoseconds, safe to record into from any number of threads.
+    Buckets are log-linear: every power of two is split into 16 equal buckets, so a percentile is reported within 1/16 (6.25%)
+    of the recorded value, from nanoseconds to centuries, in a fixed 8KB of counters. Values below 16ns are counted exactly.
+
+**/
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(bucketOf(nanos));
+        mCount.incrementAndGet();
+        mSum.addAndGet(nanos);
+        long max;
+        while(nanos > (max = mMax.get()) && !mMax.compareAndSet(max, nanos));
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+    public long getSum() {
+        return mSum.get();
+    }
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /* Returns the value below which the given percentage (0 to 100) of the recorded values fall, 0 if nothing was recorded
+    |  The value reported is the upper end of its bucket, never more than the largest value recorded
+    |*/
+    public long percentile(double percent) {
+        long count = mCount.get();
+        if(count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percent / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if(seen >= rank) {
+                return Math.min(upperBoundOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    private static int bucketOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
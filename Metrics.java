@@ -0,0 +1,224 @@
+package NOAAsoap;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+
+    Per-phase timings and counters for a run (-metrics), written out as a JSON report and in the Prometheus text format.
+    Every phase keeps a LatencyHistogram, reported as count, sum, p50, p95, p99 and max:
+
+        encode     building a request                     prepareMessage(), or RequestEncoder with the streaming parser
+        network    sending a request                      connection.call(), or the transport up to the response headers
+        parse      reading a response into the handlers   handleResponse(), or the streaming parser (which also receives the body)
+        write      writing a station's rows               the StationWriter, summed over the station
+        station    querying a station end to end
+
+    Request phases are recorded per request (a chunk is a request of its own), write and station once per station.
+    The write phase is part of the parse phase, the rows are written while the response is read.
+
+**/
+public class Metrics {
+    public enum Phase {
+        ENCODE("encode"), NETWORK("network"), PARSE("parse"), WRITE("write"), STATION("station");
+
+        private final String mName;
+
+        private Phase(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    public static final String PROMETHEUS_SUFFIX = ".prom";
+    private static final String PROMETHEUS_PREFIX = "noaaquery_";
+
+    private final LatencyHistogram[] mPhases = new LatencyHistogram[Phase.values().length];
+    private final AtomicLong mStations = new AtomicLong();
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mFaults = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mItems = new AtomicLong();
+    private final AtomicLong mRows = new AtomicLong();
+    private final long mStart = System.nanoTime();
+
+    public Metrics() {
+        for(int i = 0; i < mPhases.length; i++) {
+            mPhases[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Phase phase, long nanos) {
+        mPhases[phase.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return mPhases[phase.ordinal()];
+    }
+
+    public void addStation() {
+        mStations.incrementAndGet();
+    }
+    public void addRequest() {
+        mRequests.incrementAndGet();
+    }
+    public void addFault() {
+        mFaults.incrementAndGet();
+    }
+    public void addBytes(long bytes) {
+        mBytes.addAndGet(bytes);
+    }
+    public void addItems(long items) {
+        mItems.addAndGet(items);
+    }
+    public void addRows(long rows) {
+        mRows.addAndGet(rows);
+    }
+
+    public long getStations() {
+        return mStations.get();
+    }
+    public long getRequests() {
+        return mRequests.get();
+    }
+    public long getFaults() {
+        return mFaults.get();
+    }
+    public long getBytes() {
+        return mBytes.get();
+    }
+    public long getItems() {
+        return mItems.get();
+    }
+    public long getRows() {
+        return mRows.get();
+    }
+
+    //Wraps a response stream so that every byte read from it is counted as received
+    public InputStream count(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if(b != -1) {
+                    mBytes.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int count = super.read(buffer, offset, length);
+                if(count > 0) {
+                    mBytes.addAndGet(count);
+                }
+                return count;
+            }
+        };
+    }
+
+    /* Writes the JSON report to file, and the Prometheus text format next to it (the same name ending in .prom)
+    |  Times are in milliseconds in the JSON report and in seconds for Prometheus, as its conventions expect
+    |*/
+    public void write(File file) throws IOException {
+        double seconds = (System.nanoTime() - mStart) / 1e9;
+        writeText(file, toJson(seconds));
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        String base = (extension > 0) ? name.substring(0, extension) : name;
+        writeText(new File(file.getAbsoluteFile().getParentFile(), base + PROMETHEUS_SUFFIX), toPrometheus(seconds));
+    }
+
+    public String toJson(double seconds) {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\n");
+        sb.append("  \"seconds\": ").append(format(seconds)).append(",\n");
+        sb.append("  \"stations\": ").append(mStations.get()).append(",\n");
+        sb.append("  \"stationsPerSecond\": ").append(format(mStations.get() / seconds)).append(",\n");
+        sb.append("  \"requests\": ").append(mRequests.get()).append(",\n");
+        sb.append("  \"faults\": ").append(mFaults.get()).append(",\n");
+        sb.append("  \"bytesReceived\": ").append(mBytes.get()).append(",\n");
+        sb.append("  \"itemsParsed\": ").append(mItems.get()).append(",\n");
+        sb.append("  \"rowsWritten\": ").append(mRows.get()).append(",\n");
+        sb.append("  \"phases\": {\n");
+        Phase[] phases = Phase.values();
+        for(int i = 0; i < phases.length; i++) {
+            LatencyHistogram h = mPhases[i];
+            sb.append("    \"").append(phases[i].getName()).append("\": {")
+              .append("\"count\": ").append(h.getCount())
+              .append(", \"sumMillis\": ").append(millis(h.getSum()))
+              .append(", \"p50Millis\": ").append(millis(h.percentile(50)))
+              .append(", \"p95Millis\": ").append(millis(h.percentile(95)))
+              .append(", \"p99Millis\": ").append(millis(h.percentile(99)))
+              .append(", \"maxMillis\": ").append(millis(h.getMax()))
+              .append("}").append((i + 1 < phases.length) ? ",\n" : "\n");
+        }
+        sb.append("  }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    public String toPrometheus(double seconds) {
+        StringBuilder sb = new StringBuilder(2048);
+        String phaseName = PROMETHEUS_PREFIX + "phase_seconds";
+        sb.append("# HELP ").append(phaseName).append(" Time spent in each phase of a query.\n");
+        sb.append("# TYPE ").append(phaseName).append(" summary\n");
+        for(Phase phase : Phase.values()) {
+            LatencyHistogram h = mPhases[phase.ordinal()];
+            String label = "phase=\"" + phase.getName() + "\"";
+            sb.append(phaseName).append('{').append(label).append(",quantile=\"0.5\"} ").append(seconds(h.percentile(50))).append('\n');
+            sb.append(phaseName).append('{').append(label).append(",quantile=\"0.95\"} ").append(seconds(h.percentile(95))).append('\n');
+            sb.append(phaseName).append('{').append(label).append(",quantile=\"0.99\"} ").append(seconds(h.percentile(99))).append('\n');
+            sb.append(phaseName).append("_sum{").append(label).append("} ").append(seconds(h.getSum())).append('\n');
+            sb.append(phaseName).append("_count{").append(label).append("} ").append(h.getCount()).append('\n');
+        }
+        counter(sb, "stations_total", "Stations queried.", mStations.get());
+        counter(sb, "requests_total", "Requests sent to the endpoint.", mRequests.get());
+        counter(sb, "faults_total", "Responses which were SOAP faults.", mFaults.get());
+        counter(sb, "received_bytes_total", "Response bytes read (after decompression).", mBytes.get());
+        counter(sb, "items_parsed_total", "Response items parsed.", mItems.get());
+        counter(sb, "rows_written_total", "Output rows written.", mRows.get());
+        sb.append("# HELP ").append(PROMETHEUS_PREFIX).append("run_seconds Duration of the run.\n");
+        sb.append("# TYPE ").append(PROMETHEUS_PREFIX).append("run_seconds gauge\n");
+        sb.append(PROMETHEUS_PREFIX).append("run_seconds ").append(format(seconds)).append('\n');
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(PROMETHEUS_PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PROMETHEUS_PREFIX).append(name).append(" counter\n");
+        sb.append(PROMETHEUS_PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String millis(long nanos) {
+        return format(nanos / 1e6);
+    }
+
+    private static String seconds(long nanos) {
+        return format(nanos / 1e9);
+    }
+
+    //Locale independent, JSON and Prometheus both require a '.' decimal separator
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static void writeText(File file, String text) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+    }
+}
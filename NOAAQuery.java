@@ -6,20 +6,39 @@
 
 package NOAAsoap;
 
-import javax.xml.soap.*;
-import java.util.Iterator;
 import java.net.URL;
+import java.net.http.HttpClient;
+import java.time.Duration;
 import java.io.*;
+import javax.xml.stream.XMLStreamException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class NOAAQuery {
     public static final String DEFAULT_DATUM = NOAAXML.DATUM_MSL;
     public static final String DEFAULT_DATE_BEGIN = "19500101 00:00";
     public static final String DEFAULT_IN_FILE = "stationlist.dat";
     public static final String DEFAULT_OUT_PATH = "./";
+    public static final String STDIN = "-";
+    public static final int DEFAULT_PARALLELISM = 1;
+    public static final int DEFAULT_ADAPTIVE_PARALLELISM = 64;
+    public static final int STATION_QUEUE_CAPACITY = 1024;
+    public static final int INITIAL_ADAPTIVE_LIMIT = 4;
+    public static final String RAW_SUFFIX = "_response.xml";
+    public static final String DEFAULT_ENDPOINT = "http://opendap.co-ops.nos.noaa.gov/axis/services/WaterLevelVerifiedMonthly";
 
     public static final String ARG_HELP = "--help";
     public static final String ARG_DEBUG = "-debug";
@@ -30,73 +49,136 @@ public class NOAAQuery {
     public static final String ARG_RAW = "-raw";
     public static final String ARG_RAW_ONLY = "-raw-only";
     public static final String ARG_SUPPRESS_FILES = "-suppress-files";
+    public static final String ARG_SAAJ = "-saaj";
+    public static final String ARG_PREWARM = "-prewarm";
+    public static final String ARG_INCREMENTAL = "-incremental";
+    public static final String ARG_WRITER_THREAD = "-writer-thread";
+    public static final String ARG_ADAPTIVE = "-adaptive";
+    public static final String ARG_FAST_STARTUP = "-fast-startup";
     
     public static final String ARG_REQUEST_DATUM = "-datum";
     public static final String ARG_REQUEST_STARTDATE = "-from";
     public static final String ARG_REQUEST_ENDDATE = "-to";
     public static final String ARG_REQUEST_MONTHS = "-months";
+    public static final String ARG_PARALLEL = "-parallel";
+    public static final String ARG_ENDPOINT = "-endpoint";
+    public static final String ARG_TRANSPORT = "-transport";
+    public static final String ARG_CONNECT_TIMEOUT = "-connect-timeout";
+    public static final String ARG_TIMEOUT = "-timeout";
+    public static final String ARG_CACHE = "-cache";
+    public static final String ARG_CACHE_MAX_AGE = "-cache-max-age";
+    public static final String ARG_CACHE_RECENT = "-cache-recent";
+    public static final String ARG_CHUNK_YEARS = "-chunk-years";
+    public static final String ARG_RETRIES = "-retries";
+    public static final String ARG_RAW_ARCHIVE = "-raw-archive";
+    public static final String ARG_REPLAY = "-replay";
+    public static final String ARG_METRICS = "-metrics";
+    public static final String ARG_CATALOG = "-catalog";
+    public static final String ARG_BBOX = "-bbox";
+    public static final String ARG_RADIUS = "-radius";
+    public static final String ARG_STATE = "-state";
+    public static final String ARG_SUMMARY = "-summary";
+    public static final String ARG_MATRIX = "-matrix";
 
     public static final String ARG_INP_FORMAT = "-inpf";
     public static final String ARG_OUT_FORMAT = "-outf";
 
     public static final String ARG_CSV = "CSV";
     public static final String ARG_XML = "XML";
+    public static final String ARG_BIN = "BIN";
+    public static final String ARG_ALL = "ALL";
+    public static final String ARG_HTTP = "HTTP";
+    public static final String ARG_HTTP2 = "HTTP2";
+    public static final String ARG_URLCONNECTION = "URLCONNECTION";
 
     public static final String OUTPUT_HELP = "\nusage: NOAAQuery [inputFilename.ext [outputDirectory]]\n["+
                                                 ARG_DEBUG+"] ["+ARG_VERBOSE+"] ["+ARG_SUPPRESS_ERROR_CONSOLE+"] ["+ARG_SUPPRESS_CONSOLE+"]\n["+
-                                                ARG_RAW+"] ["+ARG_RAW_ONLY+"] ["+ARG_SUPPRESS_FILES+"]\n["+
-                                                ARG_REQUEST_DATUM+"] ["+ARG_REQUEST_STARTDATE+"] ["+ARG_REQUEST_ENDDATE+"] ["+ARG_REQUEST_MONTHS+"]\nSee readme for further use details.\n";
+                                                ARG_RAW+"] ["+ARG_RAW_ONLY+"] ["+ARG_SUPPRESS_FILES+"] ["+ARG_SAAJ+"] ["+ARG_PREWARM+"] ["+ARG_INCREMENTAL+"] ["+ARG_WRITER_THREAD+"] ["+ARG_ADAPTIVE+"] ["+ARG_FAST_STARTUP+"]\n["+
+                                                ARG_REQUEST_DATUM+"] ["+ARG_REQUEST_STARTDATE+"] ["+ARG_REQUEST_ENDDATE+"] ["+ARG_REQUEST_MONTHS+"]\n["+
+                                                ARG_PARALLEL+"] ["+ARG_ENDPOINT+"] ["+ARG_TRANSPORT+"] ["+ARG_CONNECT_TIMEOUT+"] ["+ARG_TIMEOUT+"]\n["+
+                                                ARG_CACHE+"] ["+ARG_CACHE_MAX_AGE+"] ["+ARG_CACHE_RECENT+"] ["+ARG_CHUNK_YEARS+"] ["+ARG_RETRIES+"] ["+ARG_RAW_ARCHIVE+"] ["+ARG_REPLAY+"] ["+ARG_METRICS+"] ["+ARG_SUMMARY+"] ["+ARG_MATRIX+"]\n["+
+                                                ARG_CATALOG+"] ["+ARG_BBOX+"] ["+ARG_RADIUS+"] ["+ARG_STATE+"]\nSee readme for further use details.\n";
 
-    private enum Flag {
-        NIL, ENABLE_RAW_OUTPUT, ENABLE_FILE_OUTPUT, ENABLE_CONSOLE, ENABLE_VERBOSE_CONSOLE, ENABLE_DEBUG_CONSOLE, ENABLE_ERROR_CONSOLE
+    enum Flag {
+        NIL, ENABLE_RAW_OUTPUT, ENABLE_FILE_OUTPUT, ENABLE_CONSOLE, ENABLE_VERBOSE_CONSOLE, ENABLE_DEBUG_CONSOLE, ENABLE_ERROR_CONSOLE, ENABLE_SAAJ, ENABLE_PREWARM, ENABLE_INCREMENTAL, ENABLE_WRITER_THREAD, ENABLE_ADAPTIVE, ENABLE_FAST_STARTUP
     }
     private static EnumSet<Flag> globalFlags = EnumSet.of(Flag.NIL);
     private static FileDescription inFileDesc = new FileDescription();
     private static FileDescription outFileDesc = new FileDescription();
     private static Request request = new Request();
+    private static int parallelism = 0;
+    private static String endpointName = null;
+    private static String transportName = null;
+    private static Duration connectTimeout = HttpClientTransport.CONNECT_TIMEOUT;
+    private static Duration responseTimeout = HttpClientTransport.RESPONSE_TIMEOUT;
+    private static Transport transport = null;
+    private static ResponseCache cache = null;
+    private static String cacheDirectoryName = null;
+    private static long cacheMaxAgeDays = ResponseCache.DEFAULT_MAX_AGE_DAYS;
+    private static int cacheRecentMonths = ResponseCache.DEFAULT_RECENT_MONTHS;
+    private static int chunkYears = 0;
+    private static int retries = 0;
+    private static RawArchive rawArchive = null;
+    private static String rawArchiveDirectoryName = null;
+    private static String replaySourceName = null;
+    //Per-phase timings and counters (-metrics), null unless a report was requested
+    private static Metrics metrics = null;
+    private static String metricsFileName = null;
+    //Per-station statistics (-summary), gathered while the responses are parsed and written as one table at the end of the run
+    private static SummaryTable summaryTable = null;
+    private static String summaryFileName = null;
+    //The stations whose output files are merged into one month x station matrix (-matrix) once the run is over
+    private static ConcurrentLinkedQueue<String> matrixStations = null;
+    private static String matrixFileName = null;
+    //Stations seen in responses (-catalog), and the stations to query when they are selected from it instead of an input file
+    private static StationCatalog catalog = null;
+    private static String catalogFileName = null;
+    private static StationCatalog.Selection selection = new StationCatalog.Selection();
+    //Chunks are fetched on their own pool, station workers only wait on them, so -parallel still bounds the requests in flight
+    private static ExecutorService chunkWorkers = null;
+    //A single thread writes every station's output blocks, so parsing never waits on the disk
+    private static ExecutorService writerThread = null;
+    //With -adaptive every request to the endpoint waits for a permit, -parallel becomes the highest limit it may reach
+    private static ConcurrencyLimiter limiter = null;
+
+    //Put into the station queue once per worker after the last station, compared by identity
+    private static final String END_OF_STATIONS = new String("");
+    private static final ThreadLocal<RequestEncoder> workerEncoder = new ThreadLocal<RequestEncoder>() {
+        @Override
+        protected RequestEncoder initialValue() {
+            return new RequestEncoder();
+        }
+    };
 
     public static void main(String[] args) {
-        List<String> stations = new ArrayList<String>();
-        
-        if(parseArguments(parseFlags(new CaseInsensitiveList(Arrays.asList(args)))).size() > 0){
+        if(configure(args).size() > 0){
             printDebug("Excess arguments");
         }
 
-        defaults(); //values which weren't specified are loaded
-
-        printDebug(inFileDesc.toString());
-        printDebug(outFileDesc.toString());
-        printDebug(request.toString());
-        if(globalFlags.contains(Flag.ENABLE_DEBUG_CONSOLE)) {
-            System.out.print("[DEBUG]");
-            if(globalFlags.contains(Flag.ENABLE_CONSOLE)) {
-                System.out.print("ENABLE_CONSOLE");
-            } 
-            if(globalFlags.contains(Flag.ENABLE_VERBOSE_CONSOLE)) {
-                System.out.print("|ENABLE_VERBOSE_CONSOLE");
-            }
-            if(globalFlags.contains(Flag.ENABLE_DEBUG_CONSOLE)) {
-                System.out.print("|ENABLE_DEBUG_CONSOLE");
-            }
-            if(globalFlags.contains(Flag.ENABLE_ERROR_CONSOLE)) {
-                System.out.print("|ENABLE_ERROR_CONSOLE");
-            }
-            if(globalFlags.contains(Flag.ENABLE_FILE_OUTPUT)) {
-                System.out.print("|ENABLE_FILE_OUTPUT");
-            }
-            if(globalFlags.contains(Flag.ENABLE_RAW_OUTPUT)) {
-                System.out.print("|ENABLE_RAW_OUTPUT");
-            }
-            System.out.print("\n");
+        //console output is printed by a background thread from here on
+        ConsoleLog.start(ConsoleLog.DEFAULT_CAPACITY);
+        try {
+            run();
+        } finally {
+            ConsoleLog.stop();
         }
+    }
 
-        //Verify/Load input file
-        try {
+    private static void run() {
+        printDebug(inFileDesc::toString);
+        printDebug(outFileDesc::toString);
+        printDebug(request::toString);
+        printDebug(NOAAQuery::flagsToString);
+
+        //Verify input file, it is read while the stations are queried, a replay takes its stations from the saved responses instead
+        //and a selection from the catalog
+        if(replaySourceName == null && selection.isEmpty()) {
             inFileDesc.setFileName( (inFileDesc.getFileName() == null) ? DEFAULT_IN_FILE : inFileDesc.getFileName() );
-            stations = loadStationsFromFile(inFileDesc);
-        } catch (Exception e) {
-            printError("[ERROR] Could not load file \"" + inFileDesc.getFileName() +"\"");
-            return;
+            File inFile = new File(inFileDesc.getFileName());
+            if(!STDIN.equals(inFileDesc.getFileName()) && !inFile.isFile()) {
+                printError("[ERROR] Could not load file \"" + inFileDesc.getFileName() +"\"");
+                return;
+            }
         }
 
         //Verify output path
@@ -126,350 +208,888 @@ public class NOAAQuery {
         }
 
         try {
-            SOAPConnectionFactory soapConnectionFactory = SOAPConnectionFactory.newInstance();
-            SOAPConnection connection = soapConnectionFactory.createConnection();
-            URL endpoint = new URL("http://opendap.co-ops.nos.noaa.gov/axis/services/WaterLevelVerifiedMonthly");
-            for(String id : stations) {
-                try {
-                    print("Querying station: " + id);
-                    request.setStation(id);
-                    SOAPMessage message = prepareMessage(request);
-                    SOAPMessage response = connection.call(message, endpoint);
-                    outFileDesc.setFileName(id);
-                    handleResponse(response, outFileDesc);
-                } catch (SOAPException e) {
-                    printError("[ERRROR] " + e.toString());
-                }
-            }
-            connection.close();
-        } catch (SOAPException e) {
-            printError("[ERRROR] " + e.toString());
+            final URL endpoint = new URL(endpointName);
+            if(globalFlags.contains(Flag.ENABLE_WRITER_THREAD)) {
+                writerThread = Executors.newSingleThreadExecutor();
+            }
+            if(metricsFileName != null) {
+                metrics = new Metrics();
+            }
+            if(summaryFileName != null) {
+                summaryTable = new SummaryTable();
+            }
+            if(matrixFileName != null) {
+                matrixStations = new ConcurrentLinkedQueue<String>();
+            }
+            if(catalogFileName != null) {
+                catalog = StationCatalog.load(new File(catalogFileName));
+                printDebug(() -> "Station catalog " + catalogFileName + " holds " + catalog.size() + " stations");
+            }
+            if(replaySourceName != null) {
+                replay();
+                return;
+            }
+            if(rawArchiveDirectoryName != null && globalFlags.contains(Flag.ENABLE_RAW_OUTPUT)) {
+                rawArchive = RawArchive.create(new File(rawArchiveDirectoryName));
+                printDebug(() -> "Archiving raw responses to " + rawArchive.getSegment());
+            }
+            if(globalFlags.contains(Flag.ENABLE_SAAJ)) {
+                SaajQuery.init();
+            } else {
+                if(cacheDirectoryName != null) {
+                    cache = new ResponseCache(new File(cacheDirectoryName), TimeUnit.DAYS.toMillis(cacheMaxAgeDays), cacheRecentMonths);
+                }
+                transport = createTransport(transportName, endpoint);
+                if(globalFlags.contains(Flag.ENABLE_PREWARM)) {
+                    transport.warm(parallelism);
+                }
+                if(chunkYears > 0) {
+                    chunkWorkers = Executors.newFixedThreadPool(parallelism);
+                }
+            }
+            if(globalFlags.contains(Flag.ENABLE_ADAPTIVE)) {
+                limiter = new ConcurrencyLimiter(INITIAL_ADAPTIVE_LIMIT, parallelism);
+            }
+            //Stations are queried as they are read, the list is never held in memory
+            final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(STATION_QUEUE_CAPACITY);
+            ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+            for(int i = 0; i < parallelism; i++) {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            for(String id = queue.take(); id != END_OF_STATIONS; id = queue.take()) {
+                                try {
+                                    queryStation(id, endpoint);
+                                } catch (RuntimeException e) {
+                                    //a worker lost here would leave the feed waiting on a full queue
+                                    printError("[ERROR] " + e.toString());
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            try {
+                feedStations(queue);
+            } finally {
+                for(int i = 0; i < parallelism; i++) {
+                    queue.put(END_OF_STATIONS);
+                }
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
         } catch (IOException io) {
             printError("[ERROR] " + io.toString());
-        }
-    }
-
-    private static void handleResponse(SOAPMessage response, FileDescription desc) {
-        try{
-            SOAPBody responseBody = response.getSOAPBody();
-            
-            //Raw passthrough
-            if (globalFlags.contains(Flag.ENABLE_RAW_OUTPUT)) {
+        } catch (InterruptedException e) {
+            printError("[ERROR] Interrupted while waiting for station queries to complete.");
+        } finally {
+            if(limiter != null) {
+                printDebug(limiter::toString);
+            }
+            if(chunkWorkers != null) {
+                chunkWorkers.shutdown();
+            }
+            if(writerThread != null) {
+                writerThread.shutdown();
+            }
+            if(metrics != null) {
                 try {
-                    FileOutputStream rawOut = new FileOutputStream (desc.getDirectoryName() + desc.getFileName() + "_response.xml");
-                    response.writeTo(rawOut);
-                    rawOut.close();
+                    if(writerThread != null) {
+                        //the write phase is not over until the last block is on disk
+                        writerThread.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+                    }
+                    metrics.write(new File(metricsFileName));
+                    printDebug(() -> "Metrics written to " + metricsFileName);
                 } catch (IOException e) {
-                    printError("[ERROR] Exception occurred while attempting to write raw output.\n" + e.toString());
+                    printError("[ERROR] Could not write metrics to \"" + metricsFileName + "\"\n" + e.toString());
+                } catch (InterruptedException e) {
+                    printError("[ERROR] Interrupted while waiting for output to be written.");
+                }
+            }
+            if(matrixStations != null) {
+                writeMatrix();
+            }
+            if(summaryTable != null) {
+                try {
+                    summaryTable.write(new File(summaryFileName));
+                    printDebug(() -> "Summary of " + summaryTable.size() + " stations written to " + summaryFileName);
+                } catch (IOException e) {
+                    printError("[ERROR] Could not write the summary table \"" + summaryFileName + "\"\n" + e.toString());
                 }
             }
+            if(catalog != null) {
+                try {
+                    final int updated = catalog.getUpdated();
+                    catalog.save();
+                    printDebug(() -> "Station catalog: " + catalog.size() + " stations, " + updated + " added or changed");
+                } catch (IOException e) {
+                    printError("[ERROR] Could not write the station catalog \"" + catalogFileName + "\"\n" + e.toString());
+                }
+            }
+            if(rawArchive != null) {
+                try {
+                    rawArchive.close();
+                } catch (IOException e) {
+                    printError("[ERROR] " + e.toString());
+                }
+            }
+            if(transport != null) {
+                transport.close();
+            }
+            if(globalFlags.contains(Flag.ENABLE_SAAJ)) {
+                SaajQuery.close();
+            }
+        }
+    }
 
-            desc.addExtensionToFileName();
+    //The enabled flags, for the debug console
+    private static String flagsToString() {
+        StringBuilder sb = new StringBuilder("Flags: ");
+        for(Flag flag : globalFlags) {
+            if(flag != Flag.NIL) {
+                sb.append(flag.name()).append('|');
+            }
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
 
-            if (responseBody.hasFault()) {
-                SOAPFault fault = responseBody.getFault();
-                String actor = fault.getFaultActor();
-                //System.out.println("Fault contains: ");
-                //System.out.println("Fault code: " + fault.getFaultCodeAsName().getQualifiedName());
-                System.out.println("Fault      : " + fault.getFaultString());
-                if (actor != null) {
-                    System.out.println("Actor      : " + actor);
+    /* Replays saved raw responses (-replay) into the output files, without any network access
+    |  Stations are parsed concurrently, on every core unless -parallel is given
+    |*/
+    private static void replay() {
+        Map<String, List<ReplaySource.Response>> stations;
+        try {
+            stations = ReplaySource.load(new File(replaySourceName), request.getDatum());
+        } catch (IOException e) {
+            printError("[ERROR] Could not load replay source \"" + replaySourceName + "\"\n" + e.toString());
+            return;
+        }
+        print(() -> "Replaying " + stations.size() + " stations from " + replaySourceName);
+
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        for(final Map.Entry<String, List<ReplaySource.Response>> station : stations.entrySet()) {
+            workers.execute(new Runnable() {
+                public void run() {
+                    replayStation(station.getKey(), station.getValue());
                 }
-         
-            } else {
-                Iterator iterator = responseBody.getChildElements();
-                Iterator iterator2 = null;
-                Iterator iterator3 = null;
-               
-                String tagName = null;
-                SOAPElement se = null;
-
-                FileOutputStream fOut;
-
-                if(globalFlags.contains(Flag.ENABLE_FILE_OUTPUT)) {
-                    fOut = new FileOutputStream(desc.getDirectoryName() + desc.getFileName());
-                    if (iterator.hasNext()) {
-                        se = (SOAPElement) iterator.next();
-                        iterator = se.getChildElements();
-                        while (iterator.hasNext()) {
-                            se = (SOAPElement) iterator.next();
-                            tagName = se.getElementName().getLocalName();
-                            if (NOAAXML.NODE_DATA.equals(tagName)) {
-                                iterator2 = se.getChildElements();
-                                while (iterator2.hasNext()) {
-                                    se = (SOAPElement) iterator2.next();
-                                    tagName = se.getElementName().getLocalName();
-                                    if(NOAAXML.NODE_ITEM.equals(tagName) && globalFlags.contains(Flag.ENABLE_FILE_OUTPUT)) {
-                                        writeItemNode(se, fOut, outFileDesc.getFormat(), request.getDatum());
-                                    }
-                                }
-                            }
+            });
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            printError("[ERROR] Interrupted while waiting for stations to be replayed.");
+        }
+    }
+
+    /* Replays a single station's saved responses, through the same handlers as a query
+    |  The chunks of a split response are merged in order, SAAJ can only replay whole responses
+    |*/
+    private static void replayStation(String id, List<ReplaySource.Response> responses) {
+        if(matrixStations != null) {
+            matrixStations.add(id);
+        }
+        Request stationRequest = new Request(request);
+        stationRequest.setStation(id);
+        FileDescription stationDesc = new FileDescription(outFileDesc);
+        stationDesc.setFileName(id);
+        print(() -> "Replaying station: " + id);
+        long start = System.nanoTime();
+        try {
+            if(globalFlags.contains(Flag.ENABLE_SAAJ) && responses.size() == 1) {
+                InputStream in = responses.get(0).open();
+                try {
+                    SaajQuery.replay(in, stationRequest, stationDesc);
+                } finally {
+                    in.close();
+                }
+                return;
+            } else if(globalFlags.contains(Flag.ENABLE_SAAJ)) {
+                printDebug(() -> "Station " + id + " was saved in chunks, they are merged by the streaming parser");
+            }
+
+            stationDesc.addExtensionToFileName();
+            StringBuilder verboseLog = globalFlags.contains(Flag.ENABLE_VERBOSE_CONSOLE) ? new StringBuilder() : null;
+            StationWriter writer = new StationWriter(stationDesc, stationRequest.getColumns(), globalFlags.contains(Flag.ENABLE_FILE_OUTPUT), verboseLog);
+            writer.setWriterThread(writerThread);
+            writer.setMetrics(metrics);
+            try {
+                if(responses.size() == 1) {
+                    parseResponse(responses.get(0).open(), stationRequest, null, recorded(writer, stationRequest));
+                } else {
+                    ResponseBuffer.Merger merger = new ResponseBuffer.Merger(recorded(writer, stationRequest));
+                    boolean faulted = false;
+                    for(ReplaySource.Response response : responses) {
+                        ResponseBuffer buffer = new ResponseBuffer();
+                        parseResponse(response.open(), stationRequest, null, buffer);
+                        if(!buffer.hasFault() && !buffer.isComplete()) {
+                            throw new IOException("Incomplete response in " + response.getName());
                         }
-                    }
-                    fOut.close();
-                }
-
-                if(globalFlags.contains(Flag.ENABLE_VERBOSE_CONSOLE)) {
-                    iterator = responseBody.getChildElements();
-                    if (iterator.hasNext()) {
-                        se = (SOAPElement) iterator.next();
-                        iterator = se.getChildElements();
-                        while (iterator.hasNext()) {
-                            se = (SOAPElement) iterator.next();
-                            printMetadata(se);
-                            tagName = se.getElementName().getLocalName();
-                            if (NOAAXML.NODE_DATA.equals(tagName)) {
-                                iterator2 = se.getChildElements();
-                                while (iterator2.hasNext()) {
-                                    se = (SOAPElement) iterator2.next();
-                                    tagName = se.getElementName().getLocalName();
-                                    iterator3 = se.getChildElements();
-                                    while (iterator3.hasNext()) {
-                                        se = (SOAPElement) iterator3.next();
-                                        if(globalFlags.contains(Flag.ENABLE_VERBOSE_CONSOLE)) {
-                                            printData(se);
-                                        }
-                                    }
-                                }
-                            }
+                        if(!merger.add(buffer)) {
+                            faulted = true;
+                            break;
                         }
                     }
+                    if(!faulted) {
+                        merger.end();
+                    }
                 }
+            } finally {
+                writer.close();
             }
-        }catch(Exception e) {
+            printVerboseLog(verboseLog);
+        } catch (XMLStreamException e) {
+            printError("[ERROR] " + e.toString());
+        } catch (IOException e) {
             printError("[ERROR] " + e.toString());
+        } finally {
+            recordStation(start);
         }
     }
 
-    public static SOAPMessage prepareMessage(Request r) {
-        SOAPMessage message = null;
+    /* Queries a single station and writes its output
+    |  The shared request and output description are copied so that concurrent queries never share per-station state
+    |*/
+    private static void queryStation(String id, URL endpoint) {
+        if(matrixStations != null) {
+            matrixStations.add(id);
+        }
+        Request stationRequest = new Request(request);
+        stationRequest.setStation(id);
+        FileDescription stationDesc = new FileDescription(outFileDesc);
+        stationDesc.setFileName(id);
+        long start = System.nanoTime();
         try {
-            SOAPFactory soapFactory = SOAPFactory.newInstance();
-
-            MessageFactory factory = MessageFactory.newInstance();
-            message = factory.createMessage();
-            SOAPPart part = message.getSOAPPart();
-            SOAPEnvelope envelope = part.getEnvelope();
-            envelope.addNamespaceDeclaration("water", "http://opendap.co-ops.nos.noaa.gov/");
-
-            MimeHeaders headers = message.getMimeHeaders();
-            headers.addHeader("SOAPAction", "http://opendap.co-ops.nos.noaa.gov/axis/webservices/waterlevelverifiedmonthly/wsdl");
-
-
-            SOAPBody body = envelope.getBody();
-            Name bodyName = soapFactory.createName("getWLVerifiedMonthlyAndMetadata", "water", 
-                                "http://opendap.co-ops.nos.noaa.gov/axis/webservices/waterlevelverifiedmonthly/wsdl");
-            SOAPBodyElement bodyElement = body.addBodyElement(bodyName);
-
-            //Constructing the body for the request
-            Name name = soapFactory.createName(NOAAXML.ELEM_STATION_ID);
-            SOAPElement symbol = bodyElement.addChildElement(name);
-            symbol.addTextNode(r.getStation());
-            name = soapFactory.createName(NOAAXML.ELEM_DATE_BEGIN);
-            symbol = bodyElement.addChildElement(name);
-            symbol.addTextNode(r.getStart());
-            name = soapFactory.createName(NOAAXML.ELEM_DATE_END);
-            symbol = bodyElement.addChildElement(name);
-            symbol.addTextNode(r.getEnd());
-            name = soapFactory.createName(NOAAXML.ELEM_DATUM);
-            symbol = bodyElement.addChildElement(name);
-            symbol.addTextNode(r.getDatum());
-            name = soapFactory.createName(NOAAXML.ELEM_UNIT);
-            symbol = bodyElement.addChildElement(name);
-            symbol.addTextNode("0");
-            name = soapFactory.createName(NOAAXML.ELEM_TIME_ZONE);
-            symbol = bodyElement.addChildElement(name);
-            symbol.addTextNode("0"); //do conversions on our end, where we know NOAA database timezone is GMT
-        } catch (SOAPException e) {
+            boolean append = false;
+            if(globalFlags.contains(Flag.ENABLE_INCREMENTAL)) {
+                int nextMonth = incrementalStart(stationDesc, stationRequest.getColumns());
+                int endMonth = NOAAXML.monthKeyOf(stationRequest.getEnd());
+                if(nextMonth >= 0 && endMonth >= 0 && nextMonth > endMonth) {
+                    print(() -> "Station " + id + " is up to date");
+                    return;
+                } else if(nextMonth >= 0) {
+                    stationRequest.setStart(NOAAXML.monthStartToString(nextMonth));
+                    append = true;
+                }
+            }
+
+            print(() -> "Querying station: " + id);
+            if(globalFlags.contains(Flag.ENABLE_SAAJ)) {
+                SaajQuery.queryStation(stationRequest, stationDesc, endpoint);
+            } else if(cache != null) {
+                handleCachedStation(stationRequest, stationDesc, append);
+            } else {
+                handleResponseStream(stationRequest, stationDesc, append);
+            }
+        } catch (IOException e) {
             printError("[ERROR] " + e.toString());
+        } finally {
+            recordStation(start);
         }
-        return message;
     }
 
-    /* Reads an input file (CSV or XML) and returns a list of NOAA station ids from that input file
-    |
+    //Records the time since start in the given phase, when metrics are enabled
+    static void record(Metrics.Phase phase, long start) {
+        if(metrics != null) {
+            metrics.record(phase, System.nanoTime() - start);
+        }
+    }
+
+    private static void recordStation(long start) {
+        if(metrics != null) {
+            metrics.addStation();
+            metrics.record(Metrics.Phase.STATION, System.nanoTime() - start);
+        }
+    }
+
+    private static Transport createTransport(String name, URL endpoint) throws IOException {
+        if(!"http".equalsIgnoreCase(endpoint.getProtocol()) && !"https".equalsIgnoreCase(endpoint.getProtocol())) {
+            throw new IOException("Endpoint (" + endpoint + ") is not an http(s) URL");
+        }
+        try {
+            if(ARG_URLCONNECTION.equals(name)) {
+                return new URLConnectionTransport(endpoint, connectTimeout, responseTimeout);
+            } else if(ARG_HTTP2.equals(name)) {
+                return new HttpClientTransport(endpoint.toURI(), HttpClient.Version.HTTP_2, connectTimeout, responseTimeout);
+            }
+            return new HttpClientTransport(endpoint.toURI(), HttpClient.Version.HTTP_1_1, connectTimeout, responseTimeout);
+        } catch (java.net.URISyntaxException e) {
+            throw new IOException("Endpoint (" + endpoint + ") is not a valid URI");
+        }
+    }
+
+    /* Returns the month following the last row of the station's existing output file, or -1 if the file must be written in full
+    |  Only CSV output can be appended to (see defaults()), and only a file whose rows have the requested columns
     |*/
-    public static List<String> loadStationsFromFile(FileDescription fd) throws Exception {
-        ArrayList<String> ids = new ArrayList<String>();
-        File inFile = new File(fd.getFileName());
-        if(!inFile.exists()) {
-            throw new Exception();
+    private static int incrementalStart(FileDescription desc, String[] columns) {
+        if(!globalFlags.contains(Flag.ENABLE_FILE_OUTPUT)) {
+            return -1;
         }
-        if(!inFile.isFile()) {
-            throw new Exception();
+        FileDescription existing = new FileDescription(desc);
+        existing.addExtensionToFileName();
+        File file = new File(existing.getDirectoryName() + existing.getFileName());
+        if(!file.isFile()) {
+            return -1;
+        }
+        try {
+            String lastRow = StationWriter.lastRow(file);
+            int lastMonth = (lastRow == null) ? -1 : NOAAXML.monthKeyOf(StationWriter.rowTimeStamp(lastRow));
+            if(lastMonth < 0) {
+                printDebug(() -> "Last row of " + file + " is incomplete or has no readable timestamp, rewriting it");
+                return -1;
+            }
+            if(!StationWriter.rowMatches(lastRow, columns)) {
+                printDebug(() -> "Rows of " + file + " do not hold the requested columns (" + String.join(",", columns) + "), rewriting it");
+                return -1;
+            }
+            return lastMonth + 1;
+        } catch (IOException e) {
+            printError("[ERROR] Could not read " + file + ", rewriting it.\n" + e.toString());
+            return -1;
+        }
+    }
+
+    private static InputStream fetch(Request r) throws IOException {
+        long start = System.nanoTime();
+        RequestEncoder encoder = workerEncoder.get();
+        encoder.encode(r);
+        if(metrics == null) {
+            return transport.post(encoder.getBuffer(), encoder.getLength());
         }
+        record(Metrics.Phase.ENCODE, start);
+        start = System.nanoTime();
+        InputStream in = transport.post(encoder.getBuffer(), encoder.getLength());
+        record(Metrics.Phase.NETWORK, start);
+        metrics.addRequest();
+        return in;
+    }
 
-        //default format is comma separated values
-        if(fd.getFormat() == null || fd.getFormat() == FileDescription.Format.CSV) {
-            FileReader inFileReader = new FileReader(fd.getFileName());
-            BufferedReader bufferedReader = new BufferedReader(inFileReader);
+    /* Fetches a request and parses the response into the handler, see parseResponse()
+    |  With -adaptive the request waits for a permit from the limiter, which is given back once the response has been read
+    |*/
+    private static void call(Request r, String rawFileName, ResponseHandler handler) throws IOException, XMLStreamException {
+        if(limiter == null) {
+            parseResponse(fetch(r), r, rawFileName, handler);
+            return;
+        }
+        ConcurrencyLimiter.Permit permit = acquirePermit();
+        FaultWatcher watcher = new FaultWatcher(handler);
+        try {
+            parseResponse(fetch(r), r, rawFileName, watcher);
+        } finally {
+            permit.release(!watcher.isComplete());
+        }
+    }
+
+    static ConcurrencyLimiter.Permit acquirePermit() throws IOException {
+        try {
+            return limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to send a request");
+        }
+    }
+
+    //The limiter in use with -adaptive (eg. to report its current limit), or null
+    public static ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    //The run's state, for the SAAJ path (see SaajQuery)
+    static boolean isEnabled(Flag flag) {
+        return globalFlags.contains(flag);
+    }
+    static Metrics getMetrics() {
+        return metrics;
+    }
+    static RawArchive getRawArchive() {
+        return rawArchive;
+    }
+    static ExecutorService getWriterThread() {
+        return writerThread;
+    }
+
+    /* Streams a response straight from the connection into the output files, see ResponseParser
+    |  Nothing but the current item is held in memory, regardless of the size of the response
+    |*/
+    private static void handleResponseStream(Request r, FileDescription desc, boolean append) {
+        String rawFileName = rawFileName(desc);
+        desc.addExtensionToFileName();
+
+        StringBuilder verboseLog = globalFlags.contains(Flag.ENABLE_VERBOSE_CONSOLE) ? new StringBuilder() : null;
+        StationWriter writer = new StationWriter(desc, r.getColumns(), globalFlags.contains(Flag.ENABLE_FILE_OUTPUT), verboseLog);
+        writer.setAppend(append);
+        writer.setWriterThread(writerThread);
+        writer.setMetrics(metrics);
+        try {
+            fetchRange(r, NOAAXML.monthKeyOf(r.getStart()), NOAAXML.monthKeyOf(r.getEnd()), rawFileName, false, recorded(writer, r));
+        } catch(Exception e) {
+            printError("[ERROR] " + e.toString());
+        } finally {
+            writer.close();
+        }
+        printVerboseLog(verboseLog);
+    }
+
+    /* Serves a station from the response cache, fetching only the months which the cache does not hold (see ResponseCache)
+    |  The output is written from the cache once it covers the whole request
+    |*/
+    private static void handleCachedStation(Request r, FileDescription desc, boolean append) throws IOException {
+        int first = NOAAXML.monthKeyOf(r.getStart());
+        int last = NOAAXML.monthKeyOf(r.getEnd());
+        if(first < 0 || last < first) {
+            printDebug(() -> "Request range cannot be split into months, bypassing the cache: " + r.toString());
+            handleResponseStream(r, desc, append);
+            return;
+        }
+
+        String rawFileName = rawFileName(desc);
+        desc.addExtensionToFileName();
+
+        synchronized(cache.lockFor(r.getStation(), r.getDatum())) {
+            try {
+                ResponseCache.Entry entry = cache.load(r.getStation(), r.getDatum());
+                List<int[]> runs = entry.missingRuns(first, last);
+                if(runs.isEmpty()) {
+                    printDebug(() -> "Served from cache: " + r.toString());
+                }
+                for(int[] run : runs) {
+                    Request runRequest = subRequest(r, first, last, run[0], run[1]);
+                    printDebug(() -> "Fetching uncached months: " + runRequest.toString());
+
+                    ResponseCache.Recorder recorder = entry.recorder(run[0], run[1]);
+                    fetchRange(runRequest, run[0], run[1], rawFileName, true, recorder);
+                    if(recorder.hasFault()) {
+                        printFault(recorder.getFaultString(), recorder.getFaultActor());
+                        return;
+                    }
+                    if(!recorder.isComplete()) {
+                        printError("[ERROR] Incomplete response for " + runRequest.toString());
+                        return;
+                    }
+                }
+                if(!runs.isEmpty()) {
+                    entry.save();
+                }
+
+                StringBuilder verboseLog = globalFlags.contains(Flag.ENABLE_VERBOSE_CONSOLE) ? new StringBuilder() : null;
+                StationWriter writer = new StationWriter(desc, r.getColumns(), globalFlags.contains(Flag.ENABLE_FILE_OUTPUT), verboseLog);
+                writer.setAppend(append);
+                writer.setWriterThread(writerThread);
+                writer.setMetrics(metrics);
+                try {
+                    entry.replay(first, last, recorded(writer, r));
+                } finally {
+                    writer.close();
+                }
+                printVerboseLog(verboseLog);
+            } catch(XMLStreamException e) {
+                printError("[ERROR] " + e.toString());
+            }
+        }
+    }
+
+    /* Fetches the months first to last of a request into the handler, as a single response
+    |  With -chunk-years the range is split into chunks which are fetched concurrently (each retried on its own),
+    |  then replayed in order once every chunk has succeeded, so that a month on the boundary of two chunks is never written twice
+    |  and a failed chunk leaves no partial output behind
+    |  Chunks are saved as raw output named by their first month (STATIONID_yyyyMM_response.xml), as is an unsplit range
+    |  if rawByMonth is set, so the ranges fetched for a cached station do not overwrite each other
+    |*/
+    private static void fetchRange(Request r, int first, int last, String rawFileName, boolean rawByMonth, ResponseHandler handler)
+                                        throws IOException, XMLStreamException {
+        int chunkMonths = chunkYears * 12;
+        if(chunkWorkers == null || first < 0 || last < first || first / chunkMonths == last / chunkMonths) {
+            call(r, rawByMonth ? rawFileName(rawFileName, first) : rawFileName, handler);
+            return;
+        }
 
-            String inLine = "";
-            
-            while((inLine = bufferedReader.readLine()) != null) {
-                inLine.replaceAll("\\s+", "");           //remove all whitespace
-                String[] subStrings = inLine.split(","); //split on comma
-                if(subStrings[0] != null) {
-                    try {
-                        Integer.parseInt(subStrings[0]); //ensure that the number is some valid integer
-                        ids.add(subStrings[0]);          //first value on each row is NOAA database station id
-                    } catch (Exception e) {
-                        printDebug("Input list contained a malformed line");
-                    }   
-                }    
+        //chunks are aligned to multiples of chunkYears, eg. decades
+        List<Future<ResponseBuffer>> chunks = new ArrayList<Future<ResponseBuffer>>();
+        for(int chunkFirst = first; chunkFirst <= last; chunkFirst = (chunkFirst / chunkMonths + 1) * chunkMonths) {
+            int chunkLast = Math.min(last, (chunkFirst / chunkMonths + 1) * chunkMonths - 1);
+            final Request chunkRequest = subRequest(r, first, last, chunkFirst, chunkLast);
+            final String chunkRawFileName = rawFileName(rawFileName, chunkFirst);
+            chunks.add(chunkWorkers.submit(new Callable<ResponseBuffer>() {
+                public ResponseBuffer call() throws Exception {
+                    return fetchChunk(chunkRequest, chunkRawFileName);
+                }
+            }));
+        }
+
+        ResponseBuffer.Merger merger = new ResponseBuffer.Merger(handler);
+        try {
+            for(Future<ResponseBuffer> chunk : chunks) {
+                ResponseBuffer buffer = chunk.get();
+                if(!buffer.hasFault() && !buffer.isComplete()) {
+                    throw new IOException("Incomplete response for a chunk of " + r.toString());
+                }
+                if(!merger.add(buffer)) {
+                    return;
+                }
+            }
+            merger.end();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while waiting for " + r.toString());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if(cause instanceof XMLStreamException) {
+                throw (XMLStreamException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for(Future<ResponseBuffer> chunk : chunks) {
+                chunk.cancel(true);
             }
-        } else if (fd.getFormat() == FileDescription.Format.XML) {
-            //TODO XML input file implementation
         }
+    }
 
-        if(globalFlags != null) {
-            if(globalFlags.contains(Flag.ENABLE_DEBUG_CONSOLE)) {
-                System.out.print("\nList of station ids:\n");
-                for(String s : ids) {
-                    System.out.print(s + ",");
+    //Fetches one chunk, retrying it up to -retries times if it fails or is faulted
+    private static ResponseBuffer fetchChunk(Request r, String rawFileName) throws IOException, XMLStreamException {
+        for(int attempt = 0; ; attempt++) {
+            ResponseBuffer buffer = new ResponseBuffer();
+            try {
+                call(r, rawFileName, buffer);
+                if(buffer.isComplete() || attempt >= retries) {
+                    return buffer;
+                }
+            } catch (IOException e) {
+                if(attempt >= retries) {
+                    throw e;
+                }
+            } catch (XMLStreamException e) {
+                if(attempt >= retries) {
+                    throw e;
                 }
-                System.out.print("\n");
             }
+            final int retry = attempt + 1;
+            printDebug(() -> "Retrying (" + retry + "/" + retries + ") " + r.toString());
         }
+    }
 
-        return ids;
+    /* Returns a copy of a request covering the months runFirst to runLast of the original range (first to last)
+    |  The original start and end are kept at the ends of the range, months in between start and end on month boundaries
+    |*/
+    private static Request subRequest(Request r, int first, int last, int runFirst, int runLast) {
+        Request sub = new Request(r);
+        sub.setStart((runFirst == first) ? r.getStart() : NOAAXML.monthStartToString(runFirst));
+        sub.setEnd((runLast == last) ? r.getEnd() : NOAAXML.monthEndToString(runLast));
+        return sub;
+    }
+
+    /* Parses a response into the handler, copying the raw bytes to rawFileName (or the raw archive) as they are read
+    |  rawFileName is null when raw output is disabled or archived
+    |  The stream is drained and closed
+    |*/
+    private static void parseResponse(InputStream in, Request r, String rawFileName, ResponseHandler handler) throws IOException, XMLStreamException {
+        OutputStream rawOut = null;
+        long start = System.nanoTime();
+        FaultWatcher watcher = null;
+        if(metrics != null) {
+            in = metrics.count(in);
+            handler = watcher = new FaultWatcher(handler);
+        }
+        try {
+            if (rawFileName != null || (rawArchive != null && globalFlags.contains(Flag.ENABLE_RAW_OUTPUT))) {
+                try {
+                    rawOut = (rawFileName != null) ? new FileOutputStream(rawFileName) : rawArchive.record(r);
+                    in = new TeeInputStream(in, rawOut);
+                } catch (IOException e) {
+                    printError("[ERROR] Exception occurred while attempting to write raw output.\n" + e.toString());
+                }
+            }
+            int items = ResponseParser.parse(in, handler);
+            //drain anything after the envelope, so raw output is complete and the connection can be reused
+            byte[] rest = new byte[512];
+            while(in.read(rest) != -1);
+            if(metrics != null) {
+                metrics.addItems(items);
+            }
+        } finally {
+            in.close();
+            if(rawOut != null) {
+                rawOut.close();
+            }
+            if(watcher != null) {
+                record(Metrics.Phase.PARSE, start);
+                if(watcher.hasFault()) {
+                    metrics.addFault();
+                }
+            }
+        }
+    }
+
+    //Returns the raw output file for a description without an extension, or null if raw output is disabled or archived
+    private static String rawFileName(FileDescription desc) {
+        if (globalFlags.contains(Flag.ENABLE_RAW_OUTPUT) && rawArchive == null) {
+            return desc.getDirectoryName() + desc.getFileName() + RAW_SUFFIX;
+        }
+        return null;
+    }
+
+    //The raw output file for the part of a response starting at the given month, or null if rawFileName is null
+    private static String rawFileName(String rawFileName, int month) {
+        if(rawFileName == null) {
+            return null;
+        }
+        return rawFileName.replace(RAW_SUFFIX, String.format("_%04d%02d", NOAAXML.monthKeyYear(month), NOAAXML.monthKeyMonth(month)) + RAW_SUFFIX);
+    }
+
+    //A station's console dump is logged as one entry, so it is printed in one piece when several stations are queried at once
+    static void printVerboseLog(StringBuilder verboseLog) {
+        if(verboseLog != null && verboseLog.length() > 0) {
+            verboseLog.setLength(verboseLog.length() - 1); //the line break the console adds
+            ConsoleLog.out(verboseLog.toString());
+        }
+    }
+
+    static void appendLine(StringBuilder sb, String line) {
+        if(line != null) {
+            sb.append(line).append('\n');
+        }
+    }
+
+    protected static void printFault(String faultString, String faultActor) {
+        ConsoleLog.out("Fault      : " + faultString + ((faultActor != null) ? "\nActor      : " + faultActor : ""));
+    }
+
+    /* Reads the station ids of the input file into the queue, waiting for room whenever the workers fall behind
+    |  A failure to read the input stops the feed, the stations read until then are still queried
+    |*/
+    private static void feedStations(BlockingQueue<String> queue) throws InterruptedException {
+        StationSource source;
+        try {
+            source = selection.isEmpty() ? openStationSource(inFileDesc) : selectStations(catalog, selection);
+        } catch (IOException e) {
+            printError("[ERROR] Could not load file \"" + inFileDesc.getFileName() +"\"\n" + e.toString());
+            return;
+        }
+        int count = 0;
+        try {
+            for(String id = source.next(); id != null; id = source.next()) {
+                queue.put(id);
+                count++;
+            }
+        } catch (IOException e) {
+            printError("[ERROR] Stopped reading file \"" + inFileDesc.getFileName() +"\" after " + count + " stations\n" + e.toString());
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                printDebug(() -> "Failed to close the input file: " + e.toString());
+            }
+        }
+        final int stations = count;
+        printDebug(() -> "Read " + stations + " station ids");
+    }
+
+    //The stations of a catalog selection (-bbox, -radius, -state) as a station source
+    private static StationSource selectStations(StationCatalog catalog, StationCatalog.Selection selection) {
+        final List<StationCatalog.Station> stations = catalog.select(selection);
+        printDebug(() -> selection.toString() + " matched " + stations.size() + " of " + catalog.size() + " catalogued stations");
+        return new StationSource() {
+            private int mNext = 0;
+
+            public String next() {
+                return (mNext < stations.size()) ? stations.get(mNext++).getId() : null;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    /* Merges the output files of the run's stations into the month x station matrix (see StationMatrix)
+    |  The files are read once the writer thread has written them, a station without a file (eg. a faulted one) is left out
+    |*/
+    private static void writeMatrix() {
+        try {
+            if(writerThread != null) {
+                writerThread.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            }
+            List<File> files = new ArrayList<File>();
+            for(String id : matrixStations) {
+                FileDescription stationDesc = new FileDescription(outFileDesc);
+                stationDesc.setFileName(id);
+                stationDesc.addExtensionToFileName();
+                File file = new File(stationDesc.getDirectoryName() + stationDesc.getFileName());
+                if(file.isFile()) {
+                    files.add(file);
+                } else {
+                    printDebug(() -> "Station " + id + " has no output file, it is left out of the matrix");
+                }
+            }
+            final int rows = StationMatrix.write(new File(matrixFileName), files, matrixColumn());
+            printDebug(() -> "Matrix of " + files.size() + " stations and " + rows + " months written to " + matrixFileName);
+        } catch (IOException e) {
+            printError("[ERROR] Could not write the station matrix \"" + matrixFileName + "\"\n" + e.toString());
+        } catch (InterruptedException e) {
+            printError("[ERROR] Interrupted while waiting for output to be written.");
+        }
+    }
+
+    /* The value column of the output files which holds the requested datum, 0 if the datum is not one of the columns
+    |  CSV rows hold the columns in the order requested, binary files leave the inferred column out until the end
+    |*/
+    private static int matrixColumn() {
+        int column = 0;
+        for(String name : request.getColumns()) {
+            if(name.equals(request.getDatum())) {
+                return column;
+            }
+            if(outFileDesc.getFormat() == FileDescription.Format.CSV || !NOAAXML.ELEM_INFERRED.equals(name)) {
+                column++;
+            }
+        }
+        return 0;
+    }
+
+    /* Wraps a station's output handler so that the station described by the response is added to the catalog,
+    |  and summarized into the summary table, when there are ones
+    |*/
+    private static ResponseHandler recorded(ResponseHandler handler, Request r) {
+        if(catalog != null) {
+            handler = new CatalogRecorder(catalog, handler);
+        }
+        if(summaryTable != null) {
+            handler = new SummaryRecorder(summaryTable, r.getColumns(), handler);
+        }
+        return handler;
+    }
+
+    //The station catalog (-catalog), or null
+    static StationCatalog getCatalog() {
+        return catalog;
+    }
+
+    //The run's station summaries (-summary), or null
+    static SummaryTable getSummaryTable() {
+        return summaryTable;
+    }
+
+    /* Opens an input file (CSV or XML) as a stream of NOAA station ids, standard input if the file name is "-"
+    |
+    |*/
+    public static StationSource openStationSource(FileDescription fd) throws IOException {
+        boolean stdin = STDIN.equals(fd.getFileName());
+        if(fd.getFormat() == FileDescription.Format.XML) {
+            InputStream in = stdin ? System.in : new FileInputStream(fd.getFileName());
+            return new XmlStationSource(new BufferedInputStream(in));
+        }
+        //default format is comma separated values
+        Reader in = stdin ? new InputStreamReader(System.in) : new FileReader(fd.getFileName());
+        return new CsvStationSource(in);
     }
 
-    /* Writes the requested values found in the given SOAPElement as long as it conforms to the following structure:
-    |  se => <item>
-    |            <datum_name> value </datum_name>
-    |            <datum_name> value </datum_name>
-    |            ...
-    |            <datum_name> value </datum_name>
-    |        </item>
-    | 
-    | CSV output format:
-    |     YYYY/MM/DD HH:MM, datum_value
-    |     YYYY/MM/DD HH:MM, datum_value
-    |     ...
-    | 
-    | XML output format:
-    |     <data>
-    |         <date> date <date>
-    |         <datum_name> value </datum_name>
-    |     </data>
-    |     <data> 
-    |         <datum_name> date <date>
-    |         <datum_name> value </datum_name>
-    |     </data>
-    |     ...
+    /* Reads an input file (CSV or XML) and returns a list of NOAA station ids from that input file
+    |  Queries stream the file instead (see openStationSource()), this is for callers which need the whole list
     |*/
-    public static void writeItemNode(SOAPElement se, FileOutputStream fOut, FileDescription.Format format, String datum) { 
-        Iterator iterator;
-        String tagName, timeStamp, csValues, finalOutput;
-        SOAPElement elem = se;
-
-        iterator = elem.getChildElements();
-        if(format == FileDescription.Format.CSV) {
-            try {
-                csValues = "";
-                timeStamp = "missing_timestamp"; //TODO verify procedure for malformed responses
-                while (iterator.hasNext()) {
-                    elem = (SOAPElement) iterator.next();
-                    tagName = elem.getElementName().getLocalName();
-                    if (tagName != null && NOAAXML.ELEM_TIME_STAMP.equals(tagName)) {
-                        timeStamp = elem.getValue();
-                    } else if (tagName != null && datum.equals(tagName)) {
-                        csValues += ", " + elem.getValue();
-                    }
-                }
-                finalOutput = timeStamp + csValues + "\n";
-                try {
-                    fOut.write(finalOutput.getBytes());
-                }catch (IOException e) {
-                    printError("[ERROR] Failure when writing data to file.");
-                }
-            } catch (Exception e) {
-                printDebug("writeItemNode() was called on a bad node, which resulted in a traversal exception.");
+    public static List<String> loadStationsFromFile(FileDescription fd) throws Exception {
+        ArrayList<String> ids = new ArrayList<String>();
+        StationSource source = openStationSource(fd);
+        try {
+            for(String id = source.next(); id != null; id = source.next()) {
+                ids.add(id);
             }
-        } else if(format == FileDescription.Format.XML) {
-
-            //TODO XML output
+        } finally {
+            source.close();
         }
+
+        printDebug(() -> "List of station ids:\n" + String.join(",", ids));
+
+        return ids;
     }
-    
 
-    /* If the given SOAPElement is a metadata element, prints/formats it to console
+    /* Formats a metadata element for the console, returns null if the tag is not a metadata element
     |
     |*/
-    public static void printMetadata(SOAPElement se) {
-        String tagName = se.getElementName().getLocalName();
+    public static String formatMetadata(String tagName, String value) {
         if (tagName != null) {
             if (NOAAXML.ELEM_STATION_ID.equals(tagName)) {
-                System.out.println("Printing Metadata \n");
-                System.out.println("Station ID       : " + se.getValue());
+                return "Printing Metadata \n\n" +
+                       "Station ID       : " + value;
             } else if (NOAAXML.ELEM_STATION_NAME.equals(tagName)) {
-                System.out.println("Station Name     : " + se.getValue());
+                return "Station Name     : " + value;
             } else if (NOAAXML.ELEM_LATITUDE.equals(tagName)) {
-                System.out.println("Latitude         : " + se.getValue());
+                return "Latitude         : " + value;
             } else if (NOAAXML.ELEM_LONGITUDE.equals(tagName)) {
-                System.out.println("Longitude        : " + se.getValue());
+                return "Longitude        : " + value;
             } else if (NOAAXML.ELEM_STATE.equals(tagName)) {
-                System.out.println("State            : " + se.getValue());
+                return "State            : " + value;
             } else if (NOAAXML.ELEM_DATA_SOURCE.equals(tagName)) {
-                System.out.println("Data Source      : " + se.getValue());
+                return "Data Source      : " + value;
             } else if (NOAAXML.ELEM_DATE_BEGIN.equals(tagName)) {
-                System.out.println("Begin Date       : " + se.getValue());
+                return "Begin Date       : " + value;
             } else if (NOAAXML.ELEM_DATE_END.equals(tagName)) {
-                System.out.println("End Date         : " + se.getValue());
+                return "End Date         : " + value;
             } else if (NOAAXML.ELEM_DATUM.equals(tagName)) {
-                System.out.println("Datum            : " + se.getValue());
+                return "Datum            : " + value;
             } else if (NOAAXML.ELEM_UNIT.equals(tagName)) {
-                System.out.println("Unit             : " + se.getValue());
+                return "Unit             : " + value;
             } else if (NOAAXML.ELEM_TIME_ZONE.equals(tagName)) {
-                System.out.println("Time Zone        : " + se.getValue() + "\n");
-                System.out.println("Printing the data \n");
+                return "Time Zone        : " + value + "\n\n" +
+                       "Printing the data \n";
             }
         }
+        return null;
     }
 
-    /* If the given SOAPElement is an observation element (datum with a value), prints/formats it to console
+    /* Formats an observation element for the console, returns null if the tag is not an observation element
     |
     |*/
-    public static void printData(SOAPElement se) {
-        String tagName = se.getElementName().getLocalName();
+    public static String formatData(String tagName, String value) {
         if (tagName != null) {
             if (NOAAXML.ELEM_TIME_STAMP.equals(tagName)) {
-                System.out.println("Time Stamp: " + se.getValue());
+                return "Time Stamp: " + value;
             } else if (NOAAXML.DATUM_MHHW.equals(tagName)) {
-                System.out.println("MHHW      : " + se.getValue());
+                return "MHHW      : " + value;
             } else if (NOAAXML.DATUM_MHW.equals(tagName)) {
-                System.out.println("MHW       : " + se.getValue());
+                return "MHW       : " + value;
             } else if (NOAAXML.DATUM_DTL.equals(tagName)) {
-                System.out.println("DTL       : " + se.getValue());
+                return "DTL       : " + value;
             } else if (NOAAXML.DATUM_MTL.equals(tagName)) {
-                System.out.println("MTL       : " + se.getValue());
+                return "MTL       : " + value;
             } else if (NOAAXML.DATUM_MSL.equals(tagName)) {
-                System.out.println("MSL       : " + se.getValue());
+                return "MSL       : " + value;
             } else if (NOAAXML.DATUM_MLW.equals(tagName)) {
-                System.out.println("MLW       : " + se.getValue());
+                return "MLW       : " + value;
             } else if (NOAAXML.DATUM_MLLW.equals(tagName)) {
-                System.out.println("MLLW      : " + se.getValue());
+                return "MLLW      : " + value;
             } else if (NOAAXML.DATUM_GT.equals(tagName)) {
-                System.out.println("GT        : " + se.getValue());
+                return "GT        : " + value;
             } else if (NOAAXML.DATUM_MN.equals(tagName)) {
-                System.out.println("MN        : " + se.getValue());
+                return "MN        : " + value;
             } else if (NOAAXML.DATUM_DHQ.equals(tagName)) {
-                System.out.println("DHQ       : " + se.getValue());
+                return "DHQ       : " + value;
             } else if (NOAAXML.DATUM_DLQ.equals(tagName)) {
-                System.out.println("DLQ       : " + se.getValue());
+                return "DLQ       : " + value;
             } else if (NOAAXML.DATUM_HWI.equals(tagName)) {
-                System.out.println("HWI       : " + se.getValue());
+                return "HWI       : " + value;
             } else if (NOAAXML.DATUM_LWI.equals(tagName)) {
-                System.out.println("LWI       : " + se.getValue());
+                return "LWI       : " + value;
             } else if (NOAAXML.ELEM_MAX.equals(tagName)) {
-                System.out.println("Highest Tide  : " + se.getValue());
+                return "Highest Tide  : " + value;
             } else if (NOAAXML.ELEM_MIN.equals(tagName)) {
-                System.out.println("Lowest Tide   : " + se.getValue());
+                return "Lowest Tide   : " + value;
             } else if (NOAAXML.ELEM_INFERENCE.equals(tagName)) {
-                System.out.println("Inferred Tide : " + se.getValue());
+                return "Inferred Tide : " + value;
             }
         }
+        return null;
+    }
+
+    /* Parses the command line and loads the defaults of anything it does not specify, returns the arguments which were not used
+    |  Also used to set up the static state of NOAAQuery outside of main(), eg. by the benchmarks
+    |*/
+    static List<String> configure(String... args) {
+        List<String> excess = parseArguments(parseFlags(new CaseInsensitiveList(Arrays.asList(args))));
+        defaults(); //values which weren't specified are loaded
+        return excess;
     }
 
     private static CaseInsensitiveList parseFlags(CaseInsensitiveList arguments) {
@@ -519,6 +1139,30 @@ public class NOAAQuery {
             globalFlags.remove(Flag.ENABLE_FILE_OUTPUT);
             arguments.remove(ARG_RAW_ONLY);
         }
+        if(arguments.contains(ARG_SAAJ)) {
+            globalFlags.add(Flag.ENABLE_SAAJ);
+            arguments.remove(ARG_SAAJ);
+        }
+        if(arguments.contains(ARG_PREWARM)) {
+            globalFlags.add(Flag.ENABLE_PREWARM);
+            arguments.remove(ARG_PREWARM);
+        }
+        if(arguments.contains(ARG_INCREMENTAL)) {
+            globalFlags.add(Flag.ENABLE_INCREMENTAL);
+            arguments.remove(ARG_INCREMENTAL);
+        }
+        if(arguments.contains(ARG_WRITER_THREAD)) {
+            globalFlags.add(Flag.ENABLE_WRITER_THREAD);
+            arguments.remove(ARG_WRITER_THREAD);
+        }
+        if(arguments.contains(ARG_ADAPTIVE)) {
+            globalFlags.add(Flag.ENABLE_ADAPTIVE);
+            arguments.remove(ARG_ADAPTIVE);
+        }
+        if(arguments.contains(ARG_FAST_STARTUP)) {
+            globalFlags.add(Flag.ENABLE_FAST_STARTUP);
+            arguments.remove(ARG_FAST_STARTUP);
+        }
         if(arguments.contains(ARG_SUPPRESS_FILES)){
             globalFlags.remove(Flag.ENABLE_RAW_OUTPUT);
             globalFlags.remove(Flag.ENABLE_FILE_OUTPUT);
@@ -532,10 +1176,10 @@ public class NOAAQuery {
                 if(datumStr == null) {
                     throw new Exception();
                 }
-                request.setDatum(datumStr.toUpperCase());
+                parseDatums(datumStr);
             } catch(Exception e) {
                 printError("[ERROR] Datum was requested but no datum was supplied.");
-                printError("        Expected: [ <" + ARG_REQUEST_DATUM + "> <NOAA DATUM> ]");
+                printError("        Expected: [ <" + ARG_REQUEST_DATUM + "> <NOAA DATUM>{,NOAA DATUM}|" + ARG_ALL + " ]");
                 printError("        See: https://tidesandcurrents.noaa.gov/datum_options.html");
                 printError("        Incorrect datum specification will invalidate output.");
                 System.exit(0);
@@ -625,6 +1269,329 @@ public class NOAAQuery {
             //TODO finish previous months option
         }
 
+        if(arguments.contains(ARG_PARALLEL)) {
+            int index = arguments.indexOf(ARG_PARALLEL);
+            String parallelStr = null;
+            try {
+                parallelStr = arguments.get(index + 1);
+                parallelism = Integer.parseInt(parallelStr);
+                if(parallelism < 1) {
+                    throw new Exception();
+                }
+            } catch (Exception e) {
+                printError("[ERROR] Parallel queries were requested but (" + parallelStr + ") could not be parsed to a natural number (1, 2, 3, ...)");
+                printError("        Expected: [ <" + ARG_PARALLEL + "> <N> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_ENDPOINT)) {
+            int index = arguments.indexOf(ARG_ENDPOINT);
+            try {
+                String urlStr = arguments.get(index + 1);
+                if(urlStr == null) {
+                    throw new Exception();
+                }
+                endpointName = urlStr;
+            } catch(Exception e) {
+                printError("[ERROR] An endpoint was requested but no URL was supplied.");
+                printError("        Expected: [ <" + ARG_ENDPOINT + "> <URL> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_TRANSPORT)) {
+            int index = arguments.indexOf(ARG_TRANSPORT);
+            try {
+                String transportStr = arguments.get(index + 1);
+                if(transportStr == null) {
+                    throw new Exception();
+                }
+                transportName = transportStr.toUpperCase();
+                if(!ARG_HTTP.equals(transportName) && !ARG_HTTP2.equals(transportName) && !ARG_URLCONNECTION.equals(transportName)) {
+                    printError("[ERROR] Transport was requested but (" + transportStr + ") is not a known transport.");
+                    printError("        Expected: [ <" + ARG_TRANSPORT + "> <" + ARG_HTTP + "|" + ARG_HTTP2 + "|" + ARG_URLCONNECTION + "> ]");
+                    System.exit(0);
+                }
+            } catch(Exception e) {
+                printError("[ERROR] Transport was requested but not specified.");
+                printError("        Expected: [ <" + ARG_TRANSPORT + "> <" + ARG_HTTP + "|" + ARG_HTTP2 + "|" + ARG_URLCONNECTION + "> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_CONNECT_TIMEOUT)) {
+            int index = arguments.indexOf(ARG_CONNECT_TIMEOUT);
+            String timeoutStr = null;
+            try {
+                timeoutStr = arguments.get(index + 1);
+                long seconds = Long.parseLong(timeoutStr);
+                if(seconds < 1) {
+                    throw new Exception();
+                }
+                connectTimeout = Duration.ofSeconds(seconds);
+            } catch (Exception e) {
+                printError("[ERROR] A connect timeout was requested but (" + timeoutStr + ") could not be parsed to a number of seconds (1, 2, ...)");
+                printError("        Expected: [ <" + ARG_CONNECT_TIMEOUT + "> <SECONDS> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_TIMEOUT)) {
+            int index = arguments.indexOf(ARG_TIMEOUT);
+            String timeoutStr = null;
+            try {
+                timeoutStr = arguments.get(index + 1);
+                long seconds = Long.parseLong(timeoutStr);
+                if(seconds < 1) {
+                    throw new Exception();
+                }
+                responseTimeout = Duration.ofSeconds(seconds);
+            } catch (Exception e) {
+                printError("[ERROR] A response timeout was requested but (" + timeoutStr + ") could not be parsed to a number of seconds (1, 2, ...)");
+                printError("        Expected: [ <" + ARG_TIMEOUT + "> <SECONDS> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_CACHE)) {
+            int index = arguments.indexOf(ARG_CACHE);
+            try {
+                String directoryStr = arguments.get(index + 1);
+                if(directoryStr == null) {
+                    throw new Exception();
+                }
+                cacheDirectoryName = directoryStr;
+            } catch(Exception e) {
+                printError("[ERROR] A response cache was requested but no directory was supplied.");
+                printError("        Expected: [ <" + ARG_CACHE + "> <DIRECTORY> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_CACHE_MAX_AGE)) {
+            int index = arguments.indexOf(ARG_CACHE_MAX_AGE);
+            String daysStr = null;
+            try {
+                daysStr = arguments.get(index + 1);
+                cacheMaxAgeDays = Long.parseLong(daysStr);
+                if(cacheMaxAgeDays < 0) {
+                    throw new Exception();
+                }
+            } catch (Exception e) {
+                printError("[ERROR] A cache age was requested but (" + daysStr + ") could not be parsed to a number of days (0, 1, 2, ...)");
+                printError("        Expected: [ <" + ARG_CACHE_MAX_AGE + "> <DAYS> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_CACHE_RECENT)) {
+            int index = arguments.indexOf(ARG_CACHE_RECENT);
+            String monthsStr = null;
+            try {
+                monthsStr = arguments.get(index + 1);
+                cacheRecentMonths = Integer.parseInt(monthsStr);
+                if(cacheRecentMonths < 0) {
+                    throw new Exception();
+                }
+            } catch (Exception e) {
+                printError("[ERROR] Recent cache months were requested but (" + monthsStr + ") could not be parsed to a number of months (0, 1, 2, ...)");
+                printError("        Expected: [ <" + ARG_CACHE_RECENT + "> <N> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_CHUNK_YEARS)) {
+            int index = arguments.indexOf(ARG_CHUNK_YEARS);
+            String yearsStr = null;
+            try {
+                yearsStr = arguments.get(index + 1);
+                chunkYears = Integer.parseInt(yearsStr);
+                if(chunkYears < 1) {
+                    throw new Exception();
+                }
+            } catch (Exception e) {
+                printError("[ERROR] Chunked requests were requested but (" + yearsStr + ") could not be parsed to a natural number (1, 2, 3, ...)");
+                printError("        Expected: [ <" + ARG_CHUNK_YEARS + "> <N> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_RETRIES)) {
+            int index = arguments.indexOf(ARG_RETRIES);
+            String retriesStr = null;
+            try {
+                retriesStr = arguments.get(index + 1);
+                retries = Integer.parseInt(retriesStr);
+                if(retries < 0) {
+                    throw new Exception();
+                }
+            } catch (Exception e) {
+                printError("[ERROR] Retries were requested but (" + retriesStr + ") could not be parsed to a number (0, 1, 2, ...)");
+                printError("        Expected: [ <" + ARG_RETRIES + "> <N> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_RAW_ARCHIVE)) {
+            int index = arguments.indexOf(ARG_RAW_ARCHIVE);
+            try {
+                String directoryStr = arguments.get(index + 1);
+                if(directoryStr == null) {
+                    throw new Exception();
+                }
+                rawArchiveDirectoryName = directoryStr;
+            } catch(Exception e) {
+                printError("[ERROR] A raw archive was requested but no directory was supplied.");
+                printError("        Expected: [ <" + ARG_RAW_ARCHIVE + "> <DIRECTORY> ]");
+                System.exit(0);
+            }
+            //implies -raw, unless files were suppressed (-raw-only has already enabled raw output)
+            if(globalFlags.contains(Flag.ENABLE_FILE_OUTPUT)) {
+                globalFlags.add(Flag.ENABLE_RAW_OUTPUT);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_CATALOG)) {
+            int index = arguments.indexOf(ARG_CATALOG);
+            try {
+                String catalogStr = arguments.get(index + 1);
+                if(catalogStr == null) {
+                    throw new Exception();
+                }
+                catalogFileName = catalogStr;
+            } catch(Exception e) {
+                printError("[ERROR] A station catalog was requested but no file name was supplied.");
+                printError("        Expected: [ <" + ARG_CATALOG + "> <FILE> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+        if(arguments.contains(ARG_BBOX)) {
+            int index = arguments.indexOf(ARG_BBOX);
+            try {
+                selection.setBox(StationCatalog.parseBox(arguments.get(index + 1)));
+            } catch(Exception e) {
+                printError("[ERROR] A bounding box was requested but no valid box was supplied.");
+                printError("        Expected: [ <" + ARG_BBOX + "> <MINLAT,MINLON,MAXLAT,MAXLON> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+        if(arguments.contains(ARG_RADIUS)) {
+            int index = arguments.indexOf(ARG_RADIUS);
+            try {
+                selection.setRadius(StationCatalog.parseRadius(arguments.get(index + 1)));
+            } catch(Exception e) {
+                printError("[ERROR] A radius was requested but no valid center and distance were supplied.");
+                printError("        Expected: [ <" + ARG_RADIUS + "> <LAT,LON,KM> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+        if(arguments.contains(ARG_STATE)) {
+            int index = arguments.indexOf(ARG_STATE);
+            try {
+                selection.setStates(StationCatalog.parseStates(arguments.get(index + 1)));
+            } catch(Exception e) {
+                printError("[ERROR] A state was requested but not specified.");
+                printError("        Expected: [ <" + ARG_STATE + "> <XX>{,XX} ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+        if(arguments.contains(ARG_METRICS)) {
+            int index = arguments.indexOf(ARG_METRICS);
+            try {
+                String metricsStr = arguments.get(index + 1);
+                if(metricsStr == null) {
+                    throw new Exception();
+                }
+                metricsFileName = metricsStr;
+            } catch(Exception e) {
+                printError("[ERROR] A metrics report was requested but no file name was supplied.");
+                printError("        Expected: [ <" + ARG_METRICS + "> <FILE.json> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+        if(arguments.contains(ARG_MATRIX)) {
+            int index = arguments.indexOf(ARG_MATRIX);
+            try {
+                String matrixStr = arguments.get(index + 1);
+                if(matrixStr == null) {
+                    throw new Exception();
+                }
+                matrixFileName = matrixStr;
+            } catch(Exception e) {
+                printError("[ERROR] A station matrix was requested but no file name was supplied.");
+                printError("        Expected: [ <" + ARG_MATRIX + "> <FILE.csv|FILE.bin> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+        if(arguments.contains(ARG_SUMMARY)) {
+            int index = arguments.indexOf(ARG_SUMMARY);
+            try {
+                String summaryStr = arguments.get(index + 1);
+                if(summaryStr == null) {
+                    throw new Exception();
+                }
+                summaryFileName = summaryStr;
+            } catch(Exception e) {
+                printError("[ERROR] A summary table was requested but no file name was supplied.");
+                printError("        Expected: [ <" + ARG_SUMMARY + "> <FILE.csv> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
+        if(arguments.contains(ARG_REPLAY)) {
+            int index = arguments.indexOf(ARG_REPLAY);
+            try {
+                String sourceStr = arguments.get(index + 1);
+                if(sourceStr == null) {
+                    throw new Exception();
+                }
+                replaySourceName = sourceStr;
+            } catch(Exception e) {
+                printError("[ERROR] A replay was requested but no directory or archive index was supplied.");
+                printError("        Expected: [ <" + ARG_REPLAY + "> <DIRECTORY|INDEX" + RawArchive.INDEX_SUFFIX + "> ]");
+                System.exit(0);
+            }
+            arguments.remove(index);
+            arguments.remove(index);
+        }
+
         if(arguments.contains(ARG_INP_FORMAT)) {
             int index = arguments.indexOf(ARG_INP_FORMAT);
             try {
@@ -661,14 +1628,16 @@ public class NOAAQuery {
                     outFileDesc.setFormat(FileDescription.Format.CSV);
                 } else if(ARG_XML.equals(formatStr.toUpperCase())) {
                     outFileDesc.setFormat(FileDescription.Format.XML);
+                } else if(ARG_BIN.equals(formatStr.toUpperCase())) {
+                    outFileDesc.setFormat(FileDescription.Format.BIN);
                 } else {
                     printError("[ERROR] Output format was requested but (" + formatStr + ") could not be parsed as a valid format.");
-                    printError("        Expected: [ <" + ARG_OUT_FORMAT + "> <" + ARG_CSV + "|" + ARG_XML +"> ]");
+                    printError("        Expected: [ <" + ARG_OUT_FORMAT + "> <" + ARG_CSV + "|" + ARG_XML + "|" + ARG_BIN +"> ]");
                     System.exit(0);
                 }
             } catch(Exception e) {
                 printError("[ERROR] Output format was requested but not specified.");
-                printError("        Expected: [ <" + ARG_OUT_FORMAT + "> <" + ARG_CSV + "|" + ARG_XML +"> ]");
+                printError("        Expected: [ <" + ARG_OUT_FORMAT + "> <" + ARG_CSV + "|" + ARG_XML + "|" + ARG_BIN +"> ]");
                 System.exit(0);
             }
             arguments.remove(index);
@@ -678,6 +1647,49 @@ public class NOAAQuery {
         return arguments;
     }
 
+    /* Reads the value of -datum, either one datum, a comma separated list of item values or ALL
+    |  Several values are written as one column each, and the first datum among them is the datum sent with the request
+    |*/
+    private static void parseDatums(String datumStr) throws Exception {
+        if(ARG_ALL.equals(datumStr.toUpperCase())) {
+            request.setDatum(DEFAULT_DATUM);
+            request.setColumns(NOAAXML.ALL_ITEM_VALUES.clone());
+            return;
+        }
+        String[] names = datumStr.split(",");
+        List<String> columns = new ArrayList<String>();
+        for(String name : names) {
+            name = name.trim();
+            if(name.length() == 0) {
+                continue;
+            }
+            //item values such as highest and lowest are lower case, datums are upper case
+            String column = name.toUpperCase();
+            for(String known : NOAAXML.ALL_ITEM_VALUES) {
+                if(known.equalsIgnoreCase(name)) {
+                    column = known;
+                }
+            }
+            if(!columns.contains(column)) {
+                columns.add(column);
+            }
+        }
+        if(columns.isEmpty()) {
+            throw new Exception();
+        }
+        //the request needs an actual datum, the extreme and inference values come with every datum
+        request.setDatum(DEFAULT_DATUM);
+        for(String column : columns) {
+            if(!NOAAXML.ELEM_HIGHEST.equals(column) && !NOAAXML.ELEM_LOWEST.equals(column) && !NOAAXML.ELEM_INFERRED.equals(column)) {
+                request.setDatum(column);
+                break;
+            }
+        }
+        if(columns.size() > 1 || !columns.get(0).equals(request.getDatum())) {
+            request.setColumns(columns.toArray(new String[columns.size()]));
+        }
+    }
+
     private static CaseInsensitiveList parseArguments(CaseInsensitiveList arguments) {
         if(arguments.size() > 0) {
             inFileDesc.setFileName(arguments.get(0));
@@ -703,6 +1715,27 @@ public class NOAAQuery {
             request.setDatum(DEFAULT_DATUM);
         }
 
+        if(parallelism == 0) {
+            if(replaySourceName != null) {
+                parallelism = Runtime.getRuntime().availableProcessors();
+            } else {
+                parallelism = globalFlags.contains(Flag.ENABLE_ADAPTIVE) ? DEFAULT_ADAPTIVE_PARALLELISM : DEFAULT_PARALLELISM;
+            }
+        }
+        if(replaySourceName != null) {
+            //nothing is fetched, so there is nothing to save
+            globalFlags.remove(Flag.ENABLE_RAW_OUTPUT);
+        }
+
+        if(endpointName == null) {
+            endpointName = DEFAULT_ENDPOINT;
+        }
+        if(transportName == null) {
+            //HttpClient sets up TLS (the default SSLContext, its providers and trust store) even for a plain http endpoint,
+            //which is most of the startup of a short run, HttpURLConnection only does so for https
+            transportName = globalFlags.contains(Flag.ENABLE_FAST_STARTUP) ? ARG_URLCONNECTION : ARG_HTTP;
+        }
+
         if(inFileDesc.getFileName() == null) {
             inFileDesc.setFileName(DEFAULT_IN_FILE);
         }
@@ -715,29 +1748,77 @@ public class NOAAQuery {
         if(outFileDesc.getFormat() == null) {
             outFileDesc.setFormat(FileDescription.Format.CSV);
         }
+        if(matrixFileName != null && (!globalFlags.contains(Flag.ENABLE_FILE_OUTPUT) || outFileDesc.getFormat() == FileDescription.Format.XML)) {
+            printError("[ERROR] The station matrix is merged from the stations' CSV or BIN output files, which are not being written.");
+            System.exit(0);
+        }
+        if(!selection.isEmpty() && catalogFileName == null) {
+            printError("[ERROR] Stations can only be selected by " + ARG_BBOX + ", " + ARG_RADIUS + " or " + ARG_STATE + " from a station catalog.");
+            printError("        Expected: [ <" + ARG_CATALOG + "> <FILE> ]");
+            System.exit(0);
+        }
+        if(globalFlags.contains(Flag.ENABLE_SAAJ) && System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            //the native image is configured for the streaming path only, SAAJ finds its implementation reflectively at run time
+            printError("[ERROR] " + ARG_SAAJ + " is not available in the native image, use the jar instead.");
+            System.exit(0);
+        }
+        if(outFileDesc.getFormat() == FileDescription.Format.BIN && globalFlags.contains(Flag.ENABLE_SAAJ)) {
+            printError("[ERROR] Binary output is written by the streaming parser and cannot be combined with " + ARG_SAAJ + ".");
+            System.exit(0);
+        }
+        if(globalFlags.contains(Flag.ENABLE_INCREMENTAL) && globalFlags.contains(Flag.ENABLE_SAAJ)) {
+            printError("[ERROR] " + ARG_INCREMENTAL + " appends with the streaming parser and cannot be combined with " + ARG_SAAJ + ".");
+            System.exit(0);
+        }
+        if(globalFlags.contains(Flag.ENABLE_INCREMENTAL) && outFileDesc.getFormat() != FileDescription.Format.CSV) {
+            printError("[ERROR] " + ARG_INCREMENTAL + " can only append to CSV output files.");
+            printError("        Expected: [ <" + ARG_OUT_FORMAT + "> <" + ARG_CSV + "> ]");
+            System.exit(0);
+        }
     }
 
+    /* Console output, gated by the console flags and printed asynchronously (see ConsoleLog)
+    |  The Supplier forms only build their message if it is going to be printed
+    |*/
     protected static void print(String message) {
         if(globalFlags.contains(Flag.ENABLE_CONSOLE)) {
-            System.out.println(message);
+            ConsoleLog.out(message);
+        }
+    }
+
+    protected static void print(Supplier<String> message) {
+        if(globalFlags.contains(Flag.ENABLE_CONSOLE)) {
+            ConsoleLog.out(message.get());
         }
     }
 
     protected static void printDebug(String message) {
         if(globalFlags.contains(Flag.ENABLE_DEBUG_CONSOLE)) {
-            System.out.println("[DEBUG]" + message);
+            ConsoleLog.out("[DEBUG]" + message);
+        }
+    }
+
+    protected static void printDebug(Supplier<String> message) {
+        if(globalFlags.contains(Flag.ENABLE_DEBUG_CONSOLE)) {
+            ConsoleLog.out("[DEBUG]" + message.get());
         }
     }
 
     protected static void printVerbose(String message) {
         if(globalFlags.contains(Flag.ENABLE_VERBOSE_CONSOLE)) {
-            System.out.println(message);
+            ConsoleLog.out(message);
+        }
+    }
+
+    protected static void printVerbose(Supplier<String> message) {
+        if(globalFlags.contains(Flag.ENABLE_VERBOSE_CONSOLE)) {
+            ConsoleLog.out(message.get());
         }
     }
 
     protected static void printError(String message) {
         if(globalFlags.contains(Flag.ENABLE_ERROR_CONSOLE)) {
-            System.err.println(message);
+            ConsoleLog.err(message);
         }
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,18 @@
 package NOAAsoap;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.TimeZone;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.Month;
+import java.time.Year;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class NOAAXML {
+    public static final String NAMESPACE_WATER = "http://opendap.co-ops.nos.noaa.gov/";
+    public static final String NAMESPACE_WSDL = "http://opendap.co-ops.nos.noaa.gov/axis/webservices/waterlevelverifiedmonthly/wsdl";
+    public static final String OPERATION = "getWLVerifiedMonthlyAndMetadata";
+    public static final String SOAP_ACTION = NAMESPACE_WSDL;
+
     public static final String ELEM_STATION_ID = "stationId";
     public static final String ELEM_STATION_NAME = "stationName";
     public static final String ELEM_LATITUDE = "latitude";
@@ -60,57 +68,289 @@ public class NOAAXML {
     public static final String DATUM_GREENWICH_HIGH_WATER_INTERVAL = DATUM_HWI;
     public static final String DATUM_LWI = "LWI";
     public static final String DATUM_GREENWICH_LOW_WATER_INTERVAL = DATUM_LWI;
+
+    //Every value element of a response item, in the column order used for "-datum ALL"
+    public static final String[] ALL_ITEM_VALUES = {
+        DATUM_MHHW, DATUM_MHW, DATUM_DTL, DATUM_MTL, DATUM_MSL, DATUM_MLW, DATUM_MLLW, DATUM_GT, DATUM_MN,
+        DATUM_DHQ, DATUM_DLQ, DATUM_HWI, DATUM_LWI, ELEM_HIGHEST, ELEM_LOWEST, ELEM_INFERRED
+    };
     
-    public static final String DATE_FORMAT = "yyyyMMdd hh:mm"; //Date format for Java.text.SimpleDateFormat
+    public static final String DATE_FORMAT = "yyyyMMdd HH:mm"; //Request timestamp format, as a java.time.format.DateTimeFormatter pattern
     public static final String DATABASE_TIMEZONE = "GMT";
 
-    //Converts an input timestamp into an acceptable format by adding a default time of day (00:00) if necessary, and cleaning whitespace
+    /* Timestamps are handled as packed int keys, parsed and formatted here without allocating and without any shared state,
+    |  so every function may be called from any thread (unlike SimpleDateFormat and Calendar, which were used before):
+    |
+    |      month key    year * 12 + month - 1                  consecutive months have consecutive keys
+    |      minute key   minutes since 1970-01-01 00:00         negative before 1970, for the years MIN_YEAR to MAX_YEAR
+    |
+    |  Calendar rules (leap years, month lengths, field ranges) are those of java.time, the epoch day arithmetic is the
+    |  proleptic Gregorian calculation of java.time.LocalDate, written out so that no LocalDate is created per timestamp.
+    |  Timestamps are read in the request format (yyyyMMdd HH:mm) and in both formats responses have been seen in
+    |  (yyyy/MM/dd HH:mm and MM/dd/yyyy HH:mm), the time of day may be left out (00:00) or include seconds (which are dropped).
+    |*/
+    public static final int INVALID_KEY = Integer.MIN_VALUE;
+    public static final int MIN_YEAR = 1;
+    public static final int MAX_YEAR = 4000;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int DAYS_PER_CYCLE = 146097;
+    private static final long DAYS_0000_TO_1970 = (DAYS_PER_CYCLE * 5L) - (30L * 365L + 7L);
+    private static final int REQUEST_TIMESTAMP_LENGTH = 14;
+    private static final ConcurrentHashMap<String, ZoneRules> zoneRules = new ConcurrentHashMap<String, ZoneRules>();
+
+    //Cleans an input timestamp into the request format, adding the default time of day (00:00) if there is none
+    //Any of the formats monthKeyOf() reads is accepted, surrounding whitespace is removed. A timestamp which cannot be read is
+    //returned trimmed, but otherwise unchanged, so that verifyTimeStamp() rejects it
     public static String cleanTimeStamp(String rawTimeStr) {
-        return rawTimeStr;
+        if(rawTimeStr == null) {
+            return null;
+        }
+        int key = minuteKeyOf(rawTimeStr);
+        return (key == INVALID_KEY) ? rawTimeStr.trim() : timeStampToString(key);
     }
 
     //Verifies that the given string is a legitimate timestamp which the database may accept
     //This is textual verification, not logical verification. 
     //ie. Dates prior to 1900 or exceeding the present year will be accepted
     public static boolean verifyTimeStamp(String timeStr) {
-        return true;
+        return timeStr != null && timeStr.length() == REQUEST_TIMESTAMP_LENGTH && minuteKeyOf(timeStr) != INVALID_KEY;
     }
 
     //Returns the current time as a string formatted for the NOAA database
     public static String currentTimeToString(String timezone) {
-        //Be wary of Calendar, much is deprecated and many limitations exist
-        //In this simple use case it is quite acceptable, but if this code is repurposed a newer Date library might need to be implemented
-        DateFormat dateFormat = new SimpleDateFormat(NOAAXML.DATE_FORMAT);
-        dateFormat.setTimeZone(TimeZone.getTimeZone(timezone));
-        Calendar calendar = Calendar.getInstance();
-        return dateFormat.format(calendar.getTime());
+        return timeStampToString(currentMinuteKey(timezone));
     }
 
+    //Returns the start of the month n months before the current month, formatted for the NOAA database
+    //The NOAA database returns any data matched with the month of the request, so the whole of that month is included
     public static String nMonthsAgoToString(String timezone, int n) {
-        DateFormat dateFormat = new SimpleDateFormat(NOAAXML.DATE_FORMAT);
-        dateFormat.setTimeZone(TimeZone.getTimeZone(timezone));
-        Calendar calendar = Calendar.getInstance();
-        final int currentMonth = calendar.get(Calendar.MONTH); //0-11
-        final int currentYear  = calendar.get(Calendar.YEAR);
-
-        int year = currentYear - (n / 12);
-        int month = currentMonth - (n % 12);
-
-        if(month < 0) {
-            year--;
-            month = 12 + month;
+        return monthStartToString(currentMonthKey(timezone) - n);
+    }
+
+    //Packs a year and month (1-12) into one int, consecutive months have consecutive keys
+    public static int monthKey(int year, int month) {
+        return year * 12 + (month - 1);
+    }
+
+    public static int monthKeyYear(int key) {
+        return key / 12;
+    }
+
+    public static int monthKeyMonth(int key) {
+        return (key % 12) + 1;
+    }
+
+    //The number of days in the month of a month key
+    public static int monthLength(int key) {
+        return Month.of(monthKeyMonth(key)).length(Year.isLeap(monthKeyYear(key)));
+    }
+
+    //The number of months from first to last, counting both, 0 if last is before first
+    public static int monthCount(int first, int last) {
+        return (last < first) ? 0 : last - first + 1;
+    }
+
+    //Returns the month key of the current month
+    public static int currentMonthKey(String timezone) {
+        return monthKeyOfMinute(currentMinuteKey(timezone));
+    }
+
+    //Returns the minute key of the current time in the given timezone
+    public static int currentMinuteKey(String timezone) {
+        long millis = Clock.systemUTC().millis();
+        ZoneRules rules = zoneRules.computeIfAbsent(timezone, zone -> ZoneId.of(zone).getRules());
+        int offsetSeconds = rules.isFixedOffset() ? rules.getOffset(Instant.EPOCH).getTotalSeconds()
+                                                  : rules.getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds();
+        return (int)Math.floorDiv(millis / 1000 + offsetSeconds, 60);
+    }
+
+    //Returns the month key of a request timestamp (yyyyMMdd HH:mm), or of a response timestamp, or -1 if neither can be read
+    //Response timestamps have been seen as both yyyy/MM/dd HH:mm and MM/dd/yyyy HH:mm, so the field order is found from the digit counts
+    public static int monthKeyOf(CharSequence timeStamp) {
+        int key = parse(timeStamp, true);
+        return (key == INVALID_KEY) ? -1 : key;
+    }
+
+    //Returns the minute key of a timestamp in any of the formats monthKeyOf() reads, or INVALID_KEY if it cannot be read
+    public static int minuteKeyOf(CharSequence timeStamp) {
+        return parse(timeStamp, false);
+    }
+
+    //Packs a date and time into a minute key, INVALID_KEY if any field is out of range
+    public static int minuteKey(int year, int month, int day, int hour, int minute) {
+        if(year < MIN_YEAR || year > MAX_YEAR || month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year))
+                        || hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return INVALID_KEY;
         }
+        return (int)(epochDay(year, month, day) * MINUTES_PER_DAY) + hour * 60 + minute;
+    }
 
-        calendar.set(Calendar.YEAR, year);
-        calendar.set(Calendar.MONTH, month);
+    public static int monthKeyOfMinute(int minuteKey) {
+        long zeroDay = Math.floorDiv(minuteKey, MINUTES_PER_DAY) + DAYS_0000_TO_1970 - 60;
+        //from March 1st of year 0, see LocalDate.ofEpochDay(), years start in March so that the leap day is the last day
+        long yearEstimate = (400 * zeroDay + 591) / DAYS_PER_CYCLE;
+        long dayOfYear = zeroDay - (365 * yearEstimate + yearEstimate / 4 - yearEstimate / 100 + yearEstimate / 400);
+        if(dayOfYear < 0) {
+            yearEstimate--;
+            dayOfYear = zeroDay - (365 * yearEstimate + yearEstimate / 4 - yearEstimate / 100 + yearEstimate / 400);
+        }
+        int marchMonth = ((int)dayOfYear * 5 + 2) / 153;
+        int month = (marchMonth + 2) % 12 + 1;
+        return monthKey((int)yearEstimate + marchMonth / 10, month);
+    }
 
-        //negates corner cases if hours might roll over to another month in a different timezone
-        //the NOAA database returns any data matched with the month of the request
-        calendar.set(Calendar.DAY_OF_MONTH, 25);    
+    //The first minute of a month
+    public static int monthStartMinute(int monthKey) {
+        return minuteKey(monthKeyYear(monthKey), monthKeyMonth(monthKey), 1, 0, 0);
+    }
 
-        NOAAQuery.printDebug(dateFormat.format(calendar.getTime()));
-        return dateFormat.format(calendar.getTime());
+    //The last minute of a month (23:59 of its last day)
+    public static int monthEndMinute(int monthKey) {
+        return minuteKey(monthKeyYear(monthKey), monthKeyMonth(monthKey), monthLength(monthKey), 23, 59);
     }
-    
-    
-}
\ No newline at end of file
+
+    //Returns the first minute of the month as a request timestamp
+    public static String monthStartToString(int key) {
+        return timeStampToString(monthStartMinute(key));
+    }
+
+    //Returns the last minute of the month as a request timestamp
+    public static String monthEndToString(int key) {
+        return timeStampToString(monthEndMinute(key));
+    }
+
+    //Formats a minute key as a request timestamp (yyyyMMdd HH:mm)
+    public static String timeStampToString(int minuteKey) {
+        char[] chars = new char[REQUEST_TIMESTAMP_LENGTH];
+        formatTimeStamp(minuteKey, chars, 0);
+        return new String(chars);
+    }
+
+    //Writes a minute key as a request timestamp into out at offset (14 characters), returns the offset after it
+    public static int formatTimeStamp(int minuteKey, char[] out, int offset) {
+        int monthKey = monthKeyOfMinute(minuteKey);
+        int dayMinute = Math.floorMod(minuteKey, MINUTES_PER_DAY);
+        int day = (int)(Math.floorDiv(minuteKey, MINUTES_PER_DAY) - epochDay(monthKeyYear(monthKey), monthKeyMonth(monthKey), 1)) + 1;
+        offset = digits(monthKeyYear(monthKey), 4, out, offset);
+        offset = digits(monthKeyMonth(monthKey), 2, out, offset);
+        offset = digits(day, 2, out, offset);
+        out[offset++] = ' ';
+        offset = digits(dayMinute / 60, 2, out, offset);
+        out[offset++] = ':';
+        return digits(dayMinute % 60, 2, out, offset);
+    }
+
+    private static int digits(int value, int count, char[] out, int offset) {
+        for(int i = offset + count - 1; i >= offset; i--) {
+            out[i] = (char)('0' + value % 10);
+            value /= 10;
+        }
+        return offset + count;
+    }
+
+    //Days from 1970-01-01, as LocalDate.toEpochDay() (the year is never negative here)
+    private static long epochDay(int year, int month, int day) {
+        long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if(month > 2) {
+            total--;
+            if(!Year.isLeap(year)) {
+                total--;
+            }
+        }
+        return total - DAYS_0000_TO_1970;
+    }
+
+    /* Reads up to five groups of digits: a date (yyyyMMdd, yyyy/MM/dd or MM/dd/yyyy) then hours, minutes and seconds
+    |  Returns the month key or the minute key, or INVALID_KEY if the text is not a timestamp or a field is out of range
+    |*/
+    private static int parse(CharSequence timeStamp, boolean monthOnly) {
+        if(timeStamp == null) {
+            return INVALID_KEY;
+        }
+        int g0 = 0, g1 = 0, g2 = 0, g3 = 0, g4 = 0;
+        int l0 = 0, l1 = 0, l2 = 0, l3 = 0, l4 = 0;
+        int group = -1;
+        boolean inDigits = false;
+        int length = timeStamp.length();
+        for(int i = 0; i < length; i++) {
+            char c = timeStamp.charAt(i);
+            if(c >= '0' && c <= '9') {
+                if(!inDigits) {
+                    group++;
+                    inDigits = true;
+                }
+                int digit = c - '0';
+                switch(group) {
+                    case 0: g0 = g0 * 10 + digit; l0++; break;
+                    case 1: g1 = g1 * 10 + digit; l1++; break;
+                    case 2: g2 = g2 * 10 + digit; l2++; break;
+                    case 3: g3 = g3 * 10 + digit; l3++; break;
+                    case 4: g4 = g4 * 10 + digit; l4++; break;
+                    //a fifth group (seconds) is read but not kept, more than that is not a timestamp
+                    case 5: break;
+                    default: return INVALID_KEY;
+                }
+                if(l0 > 8 || l1 > 4 || l2 > 4) {
+                    return INVALID_KEY;
+                }
+            } else if(c == '/' || c == '-' || c == ':' || c == ' ' || c == '\t' || c == 'T') {
+                inDigits = false;
+            } else {
+                return INVALID_KEY;
+            }
+        }
+
+        int year, month, day, hour, minute;
+        if(l0 == 8) {
+            //yyyyMMdd [HH:mm]
+            year = g0 / 10000;
+            month = (g0 / 100) % 100;
+            day = g0 % 100;
+            hour = g1;
+            minute = g2;
+            if(!timeOfDay(group, 0, l1, l2, l3)) {
+                return INVALID_KEY;
+            }
+        } else if(l0 == 4 && l1 > 0 && l1 <= 2 && l2 > 0 && l2 <= 2) {
+            //yyyy/MM/dd [HH:mm]
+            year = g0;
+            month = g1;
+            day = g2;
+            hour = g3;
+            minute = g4;
+            if(!timeOfDay(group, 2, l3, l4, 0)) {
+                return INVALID_KEY;
+            }
+        } else if(l0 > 0 && l0 <= 2 && l1 > 0 && l1 <= 2 && l2 == 4) {
+            //MM/dd/yyyy [HH:mm]
+            year = g2;
+            month = g0;
+            day = g1;
+            hour = g3;
+            minute = g4;
+            if(!timeOfDay(group, 2, l3, l4, 0)) {
+                return INVALID_KEY;
+            }
+        } else {
+            return INVALID_KEY;
+        }
+        int key = minuteKey(year, month, day, hour, minute);
+        if(key == INVALID_KEY || !monthOnly) {
+            return key;
+        }
+        return monthKey(year, month);
+    }
+
+    //The groups after the date are either absent, or hours and minutes (of one or two digits), optionally with seconds
+    private static boolean timeOfDay(int lastGroup, int dateGroups, int hourLength, int minuteLength, int secondLength) {
+        int timeGroups = lastGroup - dateGroups;
+        if(timeGroups == 0) {
+            return true;
+        }
+        return (timeGroups == 2 || timeGroups == 3) && hourLength > 0 && hourLength <= 2 && minuteLength > 0 && minuteLength <= 2
+                        && (timeGroups == 2 || secondLength <= 2);
+    }
+}
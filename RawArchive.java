@@ -0,0 +1,316 @@
+package NOAAsoap;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+
+    Append-only archive of raw responses (-raw-archive), replacing one uncompressed STATIONID_response.xml per station.
+    Each run appends to a single segment in the archive directory, with an index next to it:
+
+        raw_yyyyMMdd_HHmmss.xml.gz      every response as its own gzip member, so zcat prints all of them in order
+        raw_yyyyMMdd_HHmmss.idx         #NOAAQuery raw archive 1
+                                        station   datum   beginDate   endDate   fetchTimeMillis   offset   length
+
+    Index fields are tab separated, offset and length locate the compressed response in the segment, so one response can be
+    read without touching the others. The index is flushed after every response, an interrupted run leaves a usable archive.
+
+    usage: RawArchive <index.idx>                                   lists the responses in the archive
+           RawArchive <index.idx> <station> [datum] [directory]     extracts a station's responses as STATIONID_DATUM_yyyyMM_response.xml,
+                                                                    the latest one of each datum and start
+
+**/
+public class RawArchive {
+    public static final String SEGMENT_SUFFIX = ".xml.gz";
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final String HEADER = "#NOAAQuery raw archive 1";
+    private static final String SEGMENT_PREFIX = "raw_";
+
+    private File mSegment, mIndex;
+    private RandomAccessFile mSegmentFile;
+    private FileChannel mSegmentChannel;
+    private OutputStream mSegmentOut;
+    private Writer mIndexOut;
+
+    private RawArchive(File segment, File index) throws IOException {
+        mSegment = segment;
+        mIndex = index;
+        mSegmentFile = new RandomAccessFile(segment, "rw");
+        mSegmentChannel = mSegmentFile.getChannel();
+        mSegmentChannel.position(mSegmentChannel.size());
+        mSegmentOut = Channels.newOutputStream(mSegmentChannel);
+        boolean newIndex = !index.isFile() || index.length() == 0;
+        mIndexOut = new OutputStreamWriter(new FileOutputStream(index, true), StandardCharsets.UTF_8);
+        if(newIndex) {
+            mIndexOut.write(HEADER + "\n");
+            mIndexOut.flush();
+        }
+    }
+
+    //Opens the segment of this run in the given directory
+    public static RawArchive create(File directory) throws IOException {
+        directory.mkdirs();
+        if(!directory.isDirectory()) {
+            throw new IOException("Raw archive directory (" + directory + ") could not be created");
+        }
+        String name = SEGMENT_PREFIX + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        return new RawArchive(new File(directory, name + SEGMENT_SUFFIX), new File(directory, name + INDEX_SUFFIX));
+    }
+
+    public File getSegment() {
+        return mSegment;
+    }
+    public File getIndex() {
+        return mIndex;
+    }
+
+    //Returns a stream which compresses one response of the request, the response is appended when the record is committed
+    public Record record(Request r) throws IOException {
+        return new Record(r);
+    }
+
+    private synchronized void append(Request r, long fetched, ByteArrayOutputStream compressed) throws IOException {
+        long offset = mSegmentChannel.position();
+        compressed.writeTo(mSegmentOut);
+        mIndexOut.write(escape(r.getStation()) + "\t" + escape(r.getDatum()) + "\t" + escape(r.getStart()) + "\t" + escape(r.getEnd()) + "\t" +
+                        fetched + "\t" + offset + "\t" + compressed.size() + "\n");
+        mIndexOut.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            mIndexOut.close();
+        } finally {
+            mSegmentFile.close();
+        }
+    }
+
+    /* A response being compressed in memory
+    |  Responses are compressed as they are read and appended in one piece, so concurrent stations never interleave
+    |*/
+    public class Record extends OutputStream {
+        private Request mRequest;
+        private long mFetched = System.currentTimeMillis();
+        private ByteArrayOutputStream mCompressed = new ByteArrayOutputStream(16 * 1024);
+        private GZIPOutputStream mOut;
+        private boolean mCommitted = false;
+
+        private Record(Request r) throws IOException {
+            mRequest = new Request(r);
+            mOut = new GZIPOutputStream(mCompressed, 8 * 1024);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+        }
+
+        //Appends the response to the segment, a record is only appended once
+        public void commit() throws IOException {
+            if(mCommitted) {
+                return;
+            }
+            mCommitted = true;
+            mOut.finish();
+            append(mRequest, mFetched, mCompressed);
+        }
+
+        @Override
+        public void close() throws IOException {
+            commit();
+        }
+    }
+
+    public static class Entry {
+        private File mSegment;
+        private String mStation, mDatum, mBegin, mEnd;
+        private long mFetched, mOffset, mLength;
+
+        public File getSegment() {
+            return mSegment;
+        }
+        public String getStation() {
+            return mStation;
+        }
+        public String getDatum() {
+            return mDatum;
+        }
+        public String getBegin() {
+            return mBegin;
+        }
+        public String getEnd() {
+            return mEnd;
+        }
+        public long getFetched() {
+            return mFetched;
+        }
+        public long getOffset() {
+            return mOffset;
+        }
+        public long getLength() {
+            return mLength;
+        }
+
+        //Reads the response from its segment, only its own bytes are read
+        public InputStream open() throws IOException {
+            final RandomAccessFile in = new RandomAccessFile(mSegment, "r");
+            in.seek(mOffset);
+            InputStream region = new InputStream() {
+                private long mRemaining = mLength;
+
+                @Override
+                public int read() throws IOException {
+                    if(mRemaining <= 0) {
+                        return -1;
+                    }
+                    mRemaining--;
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if(mRemaining <= 0) {
+                        return -1;
+                    }
+                    int count = in.read(b, off, (int)Math.min(len, mRemaining));
+                    if(count > 0) {
+                        mRemaining -= count;
+                    }
+                    return count;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+            return new GZIPInputStream(region, 8 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return mStation + "\t" + mDatum + "\t" + mBegin + "\t" + mEnd + "\t" + new Date(mFetched) + "\t" + mOffset + "\t" + mLength;
+        }
+    }
+
+    //Reads an index, the segment is expected next to it
+    public static List<Entry> readIndex(File index) throws IOException {
+        String name = index.getName();
+        if(name.endsWith(INDEX_SUFFIX)) {
+            name = name.substring(0, name.length() - INDEX_SUFFIX.length());
+        }
+        File segment = new File(index.getAbsoluteFile().getParentFile(), name + SEGMENT_SUFFIX);
+
+        List<Entry> entries = new ArrayList<Entry>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(index), StandardCharsets.UTF_8));
+        try {
+            String line = in.readLine();
+            if(!HEADER.equals(line)) {
+                throw new IOException("Unrecognised raw archive index " + index);
+            }
+            while((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if(fields.length != 7) {
+                    throw new IOException("Malformed line in raw archive index " + index);
+                }
+                Entry entry = new Entry();
+                entry.mSegment = segment;
+                entry.mStation = unescape(fields[0]);
+                entry.mDatum = unescape(fields[1]);
+                entry.mBegin = unescape(fields[2]);
+                entry.mEnd = unescape(fields[3]);
+                entry.mFetched = Long.parseLong(fields[4]);
+                entry.mOffset = Long.parseLong(fields[5]);
+                entry.mLength = Long.parseLong(fields[6]);
+                entries.add(entry);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed line in raw archive index " + index);
+        } finally {
+            in.close();
+        }
+        return entries;
+    }
+
+    //Index fields cannot hold tabs or line breaks, they are replaced by spaces
+    private static String escape(String value) {
+        return (value == null) ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String unescape(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    public static void main(String[] args) {
+        if(args.length < 1) {
+            System.out.println("usage: RawArchive <index" + INDEX_SUFFIX + "> [station [datum] [directory]]");
+            return;
+        }
+        try {
+            List<Entry> entries = readIndex(new File(args[0]));
+            if(args.length == 1) {
+                for(Entry entry : entries) {
+                    System.out.println(entry.toString());
+                }
+                return;
+            }
+            String station = args[1];
+            String datum = (args.length > 2) ? args[2] : null;
+            File directory = new File((args.length > 3) ? args[3] : NOAAQuery.DEFAULT_OUT_PATH);
+            directory.mkdirs();
+            //a later record of the same datum and start replaces an earlier one (eg. a retried chunk), as in ReplaySource
+            Map<String, Entry> latest = new LinkedHashMap<String, Entry>();
+            for(Entry entry : entries) {
+                if(station.equals(entry.getStation()) && (datum == null || datum.equalsIgnoreCase(entry.getDatum()))) {
+                    latest.put(entry.getDatum() + "\t" + entry.getBegin(), entry);
+                }
+            }
+            for(Entry entry : latest.values()) {
+                int month = NOAAXML.monthKeyOf(entry.getBegin());
+                String name = entry.getStation() + "_" + entry.getDatum() + ((month < 0) ? "" : String.format("_%04d%02d", NOAAXML.monthKeyYear(month), NOAAXML.monthKeyMonth(month)));
+                File file = new File(directory, name + NOAAQuery.RAW_SUFFIX);
+                InputStream in = entry.open();
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    byte[] buffer = new byte[8 * 1024];
+                    int count;
+                    while((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                    out.close();
+                }
+                System.out.println(file.getPath());
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] " + e.toString());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package NOAAsoap;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+
+    Saved raw responses used as the input of a replay (-replay), grouped by station.
+    The source is either a directory of raw output files, or the index of a raw archive (see RawArchive):
+
+        STATIONID_response.xml              a whole response
+        STATIONID_yyyyMM_response.xml       one chunk of a split response (-chunk-years), starting in that month
+
+    A station's responses are ordered by their first month, so chunks can be merged back in order.
+    An archive may hold several datums and retried chunks of a station, only the responses of one datum (the requested one
+    if the archive has it) are used, and a chunk fetched more than once is taken from its last fetch.
+
+**/
+public class ReplaySource {
+
+    public static abstract class Response {
+        private String mStation, mName;
+        private int mFirstMonth;
+
+        private Response(String station, int firstMonth, String name) {
+            mStation = station;
+            mFirstMonth = firstMonth;
+            mName = name;
+        }
+
+        public String getStation() {
+            return mStation;
+        }
+        //-1 for a whole response
+        public int getFirstMonth() {
+            return mFirstMonth;
+        }
+        public String getName() {
+            return mName;
+        }
+
+        public abstract InputStream open() throws IOException;
+    }
+
+    //Returns each station's responses in order, stations are sorted by id
+    public static Map<String, List<Response>> load(File source, String datum) throws IOException {
+        Map<String, List<Response>> stations;
+        if(source.isDirectory()) {
+            stations = loadDirectory(source);
+        } else if(source.isFile() && source.getName().endsWith(RawArchive.INDEX_SUFFIX)) {
+            stations = loadArchive(source, datum);
+        } else {
+            throw new IOException("Replay source (" + source + ") is neither a directory nor a raw archive index (" + RawArchive.INDEX_SUFFIX + ")");
+        }
+        for(List<Response> responses : stations.values()) {
+            Collections.sort(responses, new Comparator<Response>() {
+                public int compare(Response a, Response b) {
+                    return Integer.compare(a.mFirstMonth, b.mFirstMonth);
+                }
+            });
+        }
+        return stations;
+    }
+
+    private static Map<String, List<Response>> loadDirectory(File directory) throws IOException {
+        Map<String, List<Response>> stations = new TreeMap<String, List<Response>>();
+        File[] files = directory.listFiles();
+        if(files == null) {
+            throw new IOException("Could not list " + directory);
+        }
+        for(final File file : files) {
+            String name = file.getName();
+            if(!file.isFile() || !name.endsWith(NOAAQuery.RAW_SUFFIX)) {
+                continue;
+            }
+            String[] parts = name.substring(0, name.length() - NOAAQuery.RAW_SUFFIX.length()).split("_");
+            int firstMonth = -1;
+            if(parts.length == 2 && parts[1].length() == 6) {
+                firstMonth = NOAAXML.monthKeyOf(parts[1] + "01");
+            }
+            if(parts.length > 2 || (parts.length == 2 && firstMonth < 0)) {
+                NOAAQuery.printDebug(() -> "Skipping unrecognised raw file " + file);
+                continue;
+            }
+            add(stations, new Response(parts[0], firstMonth, file.getPath()) {
+                public InputStream open() throws IOException {
+                    return new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+                }
+            });
+        }
+        return stations;
+    }
+
+    private static Map<String, List<Response>> loadArchive(File index, String datum) throws IOException {
+        //the datum used for each station, the requested one wins over the first one seen
+        Map<String, String> stationDatums = new TreeMap<String, String>();
+        List<RawArchive.Entry> entries = RawArchive.readIndex(index);
+        for(RawArchive.Entry entry : entries) {
+            String current = stationDatums.get(entry.getStation());
+            if(current == null || (!current.equalsIgnoreCase(datum) && datum != null && datum.equalsIgnoreCase(entry.getDatum()))) {
+                stationDatums.put(entry.getStation(), entry.getDatum());
+            }
+        }
+
+        //a later record of the same station and start replaces an earlier one (eg. a retried chunk)
+        Map<String, RawArchive.Entry> latest = new LinkedHashMap<String, RawArchive.Entry>();
+        for(RawArchive.Entry entry : entries) {
+            String stationDatum = stationDatums.get(entry.getStation());
+            if(stationDatum != null && stationDatum.equals(entry.getDatum())) {
+                latest.put(entry.getStation() + "\t" + entry.getBegin(), entry);
+            }
+        }
+
+        Map<String, List<Response>> stations = new TreeMap<String, List<Response>>();
+        for(final RawArchive.Entry entry : latest.values()) {
+            add(stations, new Response(entry.getStation(), NOAAXML.monthKeyOf(entry.getBegin()), index.getName() + "@" + entry.getOffset()) {
+                public InputStream open() throws IOException {
+                    return new BufferedInputStream(entry.open(), 64 * 1024);
+                }
+            });
+        }
+        return stations;
+    }
+
+    private static void add(Map<String, List<Response>> stations, Response response) {
+        List<Response> responses = stations.get(response.getStation());
+        if(responses == null) {
+            responses = new ArrayList<Response>();
+            stations.put(response.getStation(), responses);
+        }
+        responses.add(response);
+    }
+}
@@ -2,12 +2,22 @@ package NOAAsoap;
 
 public class Request {
     private String mStation, mDatum, mStart, mEnd;
+    private String[] mColumns;
 
     public Request() {
         mDatum = null;
         mStation = null;
         mStart = null;
         mEnd = null;
+        mColumns = null;
+    }
+
+    public Request(Request other) {
+        mDatum = other.mDatum;
+        mStation = other.mStation;
+        mStart = other.mStart;
+        mEnd = other.mEnd;
+        mColumns = other.mColumns;
     }
 
     public String getStation() {
@@ -24,6 +34,14 @@ public class Request {
         mDatum = datum;
     }
 
+    //The item values written to the output, one column each. Defaults to the requested datum alone
+    public String[] getColumns() {
+        return (mColumns == null) ? new String[] {mDatum} : mColumns;
+    }
+    public void setColumns(String[] columns) {
+        mColumns = columns;
+    }
+
     public String getStart() {
         return mStart;
     }
@@ -40,6 +58,7 @@ public class Request {
 
     @Override
     public String toString() {
-        return "Request, station:" + mStation + ", datum:" + mDatum + ", start:" + mStart + ", end:" + mEnd; 
+        return "Request, station:" + mStation + ", datum:" + mDatum + ", start:" + mStart + ", end:" + mEnd + 
+               ((mColumns == null) ? "" : ", columns:" + String.join("|", mColumns));
     }
 }
\ No newline at end of file
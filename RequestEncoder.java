@@ -0,0 +1,149 @@
+package NOAAsoap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+
+    Encodes getWLVerifiedMonthlyAndMetadata requests without SAAJ.
+    The envelope is built once as a byte template, each call only splices the station, dates and datum into a reusable buffer.
+    The result is byte for byte what SaajQuery.prepareMessage() serializes to, including SAAJ's escaping of text nodes and its
+    self-closing form of an element without text (eg. an empty datum is <datum/>).
+
+    An encoder is not thread safe, each thread should use its own instance.
+
+**/
+public class RequestEncoder {
+    private static final byte[] ENVELOPE_START = bytes(
+        "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:water=\"" + NOAAXML.NAMESPACE_WATER + "\">" +
+        "<SOAP-ENV:Header/><SOAP-ENV:Body>" +
+        "<water:" + NOAAXML.OPERATION + " xmlns:water=\"" + NOAAXML.NAMESPACE_WSDL + "\">");
+    private static final byte[] ENVELOPE_END = bytes(
+        "<" + NOAAXML.ELEM_UNIT + ">0</" + NOAAXML.ELEM_UNIT + ">" +
+        "<" + NOAAXML.ELEM_TIME_ZONE + ">0</" + NOAAXML.ELEM_TIME_ZONE + ">" +
+        "</water:" + NOAAXML.OPERATION + "></SOAP-ENV:Body></SOAP-ENV:Envelope>");
+
+    //the spliced elements, each as its start tag, end tag and empty form
+    private static final byte[][] STATION = element(NOAAXML.ELEM_STATION_ID);
+    private static final byte[][] DATE_BEGIN = element(NOAAXML.ELEM_DATE_BEGIN);
+    private static final byte[][] DATE_END = element(NOAAXML.ELEM_DATE_END);
+    private static final byte[][] DATUM = element(NOAAXML.ELEM_DATUM);
+    private static final int START_TAG = 0, END_TAG = 1, EMPTY = 2;
+
+    private static final byte[] ESCAPED_AMP = bytes("&amp;");
+    private static final byte[] ESCAPED_LT = bytes("&lt;");
+    private static final byte[] ESCAPED_GT = bytes("&gt;");
+    private static final byte[] ESCAPED_CR = bytes("&#13;");
+
+    private byte[] mBuffer = new byte[1024];
+    private int mLength = 0;
+
+    //Encodes the request into the internal buffer, and returns the encoded length
+    //The buffer is overwritten by the next call
+    public int encode(Request r) {
+        mLength = 0;
+        append(ENVELOPE_START);
+        appendElement(STATION, r.getStation());
+        appendElement(DATE_BEGIN, r.getStart());
+        appendElement(DATE_END, r.getEnd());
+        appendElement(DATUM, r.getDatum());
+        append(ENVELOPE_END);
+        return mLength;
+    }
+
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBuffer, 0, mLength);
+    }
+
+    //Returns a copy of the last encoded request
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer, mLength);
+    }
+
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mLength, bytes.length);
+        mLength += bytes.length;
+    }
+
+    //Writes the element with the given text, or in its empty form if there is none, as SAAJ does
+    private void appendElement(byte[][] element, String text) {
+        if(text == null || text.isEmpty()) {
+            append(element[EMPTY]);
+            return;
+        }
+        append(element[START_TAG]);
+        appendText(text);
+        append(element[END_TAG]);
+    }
+
+    //Writes the string as UTF-8, escaped the same way SAAJ escapes text nodes
+    private void appendText(String text) {
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if(c == '&') {
+                append(ESCAPED_AMP);
+            } else if(c == '<') {
+                append(ESCAPED_LT);
+            } else if(c == '>') {
+                append(ESCAPED_GT);
+            } else if(c == '\r') {
+                append(ESCAPED_CR);
+            } else if(c < 0x80) {
+                ensureCapacity(1);
+                mBuffer[mLength++] = (byte)c;
+            } else if(c < 0x800) {
+                ensureCapacity(2);
+                mBuffer[mLength++] = (byte)(0xC0 | (c >> 6));
+                mBuffer[mLength++] = (byte)(0x80 | (c & 0x3F));
+            } else if(Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                //SAAJ writes characters outside the BMP as character references
+                appendCharacterReference(Character.toCodePoint(c, text.charAt(++i)));
+            } else {
+                ensureCapacity(3);
+                mBuffer[mLength++] = (byte)(0xE0 | (c >> 12));
+                mBuffer[mLength++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                mBuffer[mLength++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void appendCharacterReference(int codePoint) {
+        int digits = 1;
+        for(int n = codePoint; n >= 10; n /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits + 3);
+        mBuffer[mLength++] = '&';
+        mBuffer[mLength++] = '#';
+        for(int i = mLength + digits - 1; i >= mLength; i--) {
+            mBuffer[i] = (byte)('0' + (codePoint % 10));
+            codePoint /= 10;
+        }
+        mLength += digits;
+        mBuffer[mLength++] = ';';
+    }
+
+    private void ensureCapacity(int extra) {
+        if(mLength + extra > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + extra));
+        }
+    }
+
+    private static byte[][] element(String name) {
+        return new byte[][] { bytes("<" + name + ">"), bytes("</" + name + ">"), bytes("<" + name + "/>") };
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
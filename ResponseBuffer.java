@@ -0,0 +1,139 @@
+package NOAAsoap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+
+    ResponseHandler which keeps a whole (partial) response in memory so that it can be replayed later.
+    Used to merge the chunks of a split request back into a single response, in timestamp order.
+
+**/
+public class ResponseBuffer implements ResponseHandler {
+    private List<String[]> mMetadata = new ArrayList<String[]>();
+    private List<String[]> mItems = new ArrayList<String[]>();
+    private int[] mItemMonths = new int[64];
+    private List<String> mItem = new ArrayList<String>();
+    private int mItemMonth;
+    private String mFaultString = null, mFaultActor = null;
+    private boolean mFault = false, mComplete = false;
+
+    public void startResponse() {
+    }
+
+    public void metadata(String tagName, String value) {
+        mMetadata.add(new String[] {tagName, value});
+    }
+
+    public void startItem() {
+        mItem.clear();
+        mItemMonth = -1;
+    }
+
+    public void itemValue(String tagName, String value) {
+        mItem.add(tagName);
+        mItem.add(value);
+        if(NOAAXML.ELEM_TIME_STAMP.equals(tagName)) {
+            mItemMonth = NOAAXML.monthKeyOf(value);
+        }
+    }
+
+    public void endItem() {
+        if(mItems.size() == mItemMonths.length) {
+            mItemMonths = Arrays.copyOf(mItemMonths, mItemMonths.length * 2);
+        }
+        mItemMonths[mItems.size()] = mItemMonth;
+        mItems.add(mItem.toArray(new String[mItem.size()]));
+    }
+
+    public void endResponse() {
+        mComplete = true;
+    }
+
+    public void fault(String faultString, String faultActor) {
+        mFault = true;
+        mFaultString = faultString;
+        mFaultActor = faultActor;
+    }
+
+    public boolean hasFault() {
+        return mFault;
+    }
+    public String getFaultString() {
+        return mFaultString;
+    }
+    public String getFaultActor() {
+        return mFaultActor;
+    }
+
+    //True once the end of the response element has been read
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    public void replayMetadata(ResponseHandler handler) {
+        for(String[] pair : mMetadata) {
+            handler.metadata(pair[0], pair[1]);
+        }
+    }
+
+    /* Replays the buffered items, skipping those whose month is not after afterMonth (months already written by a previous chunk)
+    |  Items without a readable timestamp are always replayed
+    |  Returns the last month written, to be passed as afterMonth for the next chunk
+    |*/
+    public int replayItems(ResponseHandler handler, int afterMonth) {
+        int lastMonth = afterMonth;
+        for(int i = 0; i < mItems.size(); i++) {
+            int month = mItemMonths[i];
+            if(month >= 0 && month <= afterMonth) {
+                continue;
+            }
+            String[] item = mItems.get(i);
+            handler.startItem();
+            for(int j = 0; j + 1 < item.length; j += 2) {
+                handler.itemValue(item[j], item[j + 1]);
+            }
+            handler.endItem();
+            lastMonth = Math.max(lastMonth, month);
+        }
+        return lastMonth;
+    }
+
+    /* Merges the chunks of a split response back into a single response, in the order they are added
+    |  A month on the boundary of two chunks is only written from the first of them
+    |  Nothing is replayed until end(), so a response whose later chunk fails or is faulted leaves no partial output behind
+    |*/
+    public static class Merger {
+        private ResponseHandler mHandler;
+        private List<ResponseBuffer> mChunks = new ArrayList<ResponseBuffer>();
+
+        public Merger(ResponseHandler handler) {
+            mHandler = handler;
+        }
+
+        //Holds the next chunk, a faulted chunk is passed on as the fault of the whole response and false is returned
+        public boolean add(ResponseBuffer chunk) {
+            if(chunk.hasFault()) {
+                mHandler.fault(chunk.getFaultString(), chunk.getFaultActor());
+                return false;
+            }
+            mChunks.add(chunk);
+            return true;
+        }
+
+        //Replays the chunks held, once every chunk of the response has been added
+        public void end() {
+            int lastMonth = -1;
+            for(int i = 0; i < mChunks.size(); i++) {
+                ResponseBuffer chunk = mChunks.get(i);
+                if(i == 0) {
+                    mHandler.startResponse();
+                    chunk.replayMetadata(mHandler);
+                }
+                lastMonth = chunk.replayItems(mHandler, lastMonth);
+                mChunks.set(i, null); //a replayed chunk can be collected
+            }
+            mHandler.endResponse();
+        }
+    }
+}
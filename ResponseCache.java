@@ -0,0 +1,385 @@
+package NOAAsoap;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+
+    On-disk cache of parsed responses, keyed by station, datum and month.
+    Each (station, datum) pair is kept in one text file in the cache directory:
+
+        #NOAAQuery response cache 1
+        M   tagName   value                      (response metadata)
+        T   yyyyMM    fetchTimeMillis            (a month which has been fetched, followed by its items)
+        I   tagName   value   tagName   value    (one item, in document order)
+        E                                        (the end of the file)
+
+    Fields are tab separated, tabs, newlines and backslashes in values are escaped and \N is a null value.
+    A month is served from the cache unless it is the current month (or later), or it is one of the most recent months and
+    was fetched longer ago than the maximum age. Older months are never fetched again.
+
+**/
+public class ResponseCache {
+    public static final long DEFAULT_MAX_AGE_DAYS = 30;
+    public static final int DEFAULT_RECENT_MONTHS = 24;
+
+    private static final String HEADER = "#NOAAQuery response cache 2";
+    private static final String TYPE_METADATA = "M";
+    private static final String TYPE_MONTH = "T";
+    private static final String TYPE_ITEM = "I";
+    private static final String TYPE_END = "E";
+    private static final String NULL_VALUE = "\\N";
+
+    private File mDirectory;
+    private long mMaxAgeMillis;
+    private int mRecentMonths;
+    private final ConcurrentHashMap<String, Object> mLocks = new ConcurrentHashMap<String, Object>();
+
+    public ResponseCache(File directory, long maxAgeMillis, int recentMonths) {
+        mDirectory = directory;
+        mMaxAgeMillis = maxAgeMillis;
+        mRecentMonths = recentMonths;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    //Entries are not thread safe, callers must hold this lock while they load, update and save an entry
+    public Object lockFor(String station, String datum) {
+        Object lock = new Object();
+        Object existing = mLocks.putIfAbsent(fileName(station, datum), lock);
+        return (existing == null) ? lock : existing;
+    }
+
+    /* Loads the entry of a station and datum, or an empty one if it is not cached
+    |  An unreadable cache file is discarded, so its months are fetched again and the file is replaced when the entry is saved
+    |*/
+    public Entry load(String station, String datum) {
+        File file = new File(mDirectory, fileName(station, datum));
+        Entry entry = new Entry(file);
+        if(file.isFile()) {
+            try {
+                entry.read();
+            } catch (IOException e) {
+                NOAAQuery.printError("[ERROR] Discarding cache file, its months will be fetched again: " + e.getMessage());
+                entry = new Entry(file);
+            }
+        }
+        return entry;
+    }
+
+    private static String fileName(String station, String datum) {
+        return (station + "_" + datum).replaceAll("[^A-Za-z0-9_-]", "_") + ".cache";
+    }
+
+    public class Entry {
+        private File mFile;
+        private List<String[]> mMetadata = new ArrayList<String[]>();
+        private TreeMap<Integer, Month> mMonths = new TreeMap<Integer, Month>();
+
+        private Entry(File file) {
+            mFile = file;
+        }
+
+        /* Returns the months between first and last (inclusive) which must be fetched, as runs of consecutive months
+        |  Each run is {firstMonth, lastMonth}
+        |*/
+        public List<int[]> missingRuns(int first, int last) {
+            List<int[]> runs = new ArrayList<int[]>();
+            int currentMonth = NOAAXML.currentMonthKey(NOAAXML.DATABASE_TIMEZONE);
+            long now = System.currentTimeMillis();
+            int runStart = -1;
+            for(int month = first; month <= last; month++) {
+                if(!isFresh(month, currentMonth, now)) {
+                    if(runStart < 0) {
+                        runStart = month;
+                    }
+                } else if(runStart >= 0) {
+                    runs.add(new int[] {runStart, month - 1});
+                    runStart = -1;
+                }
+            }
+            if(runStart >= 0) {
+                runs.add(new int[] {runStart, last});
+            }
+            return runs;
+        }
+
+        private boolean isFresh(int month, int currentMonth, long now) {
+            Month cached = mMonths.get(month);
+            if(cached == null || month >= currentMonth) {
+                return false;
+            }
+            if(month >= currentMonth - mRecentMonths && now - cached.mFetched > mMaxAgeMillis) {
+                return false;
+            }
+            return true;
+        }
+
+        //Returns a handler which stores a response covering the months first to last, replacing what was cached for them
+        public Recorder recorder(int first, int last) {
+            return new Recorder(this, first, last);
+        }
+
+        //Plays the cached months between first and last back to the handler as if they were a single response
+        public void replay(int first, int last, ResponseHandler handler) {
+            handler.startResponse();
+            for(String[] pair : mMetadata) {
+                handler.metadata(pair[0], pair[1]);
+            }
+            for(Month month : mMonths.subMap(first, true, last, true).values()) {
+                for(String[] item : month.mItems) {
+                    handler.startItem();
+                    for(int i = 0; i + 1 < item.length; i += 2) {
+                        handler.itemValue(item[i], item[i + 1]);
+                    }
+                    handler.endItem();
+                }
+            }
+            handler.endResponse();
+        }
+
+        public void save() throws IOException {
+            mDirectory.mkdirs();
+            File temp = new File(mDirectory, mFile.getName() + ".tmp");
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8));
+            try {
+                out.write(HEADER + "\n");
+                for(String[] pair : mMetadata) {
+                    writeLine(out, TYPE_METADATA, pair);
+                }
+                for(Map.Entry<Integer, Month> month : mMonths.entrySet()) {
+                    int key = month.getKey();
+                    out.write(TYPE_MONTH + "\t" + String.format("%04d%02d", NOAAXML.monthKeyYear(key), NOAAXML.monthKeyMonth(key)) +
+                              "\t" + month.getValue().mFetched + "\n");
+                    for(String[] item : month.getValue().mItems) {
+                        writeLine(out, TYPE_ITEM, item);
+                    }
+                }
+                out.write(TYPE_END + "\n");
+            } finally {
+                out.close();
+            }
+            //the cache file is replaced in one step, an interrupted run leaves the previous version intact
+            Files.move(temp.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void read() throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), StandardCharsets.UTF_8));
+            try {
+                String line = in.readLine();
+                if(!HEADER.equals(line)) {
+                    throw new IOException("Unrecognised cache file " + mFile);
+                }
+                //a file cut short is missing its end line, an item cut short has an odd number of fields
+                Month month = null;
+                boolean ended = false;
+                while((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if(ended) {
+                        throw new IOException("Data after the end of cache file " + mFile);
+                    } else if(TYPE_END.equals(fields[0]) && fields.length == 1) {
+                        ended = true;
+                    } else if(TYPE_METADATA.equals(fields[0]) && fields.length == 3) {
+                        mMetadata.add(new String[] {unescape(fields[1]), unescape(fields[2])});
+                    } else if(TYPE_MONTH.equals(fields[0]) && fields.length == 3) {
+                        int yyyymm = Integer.parseInt(fields[1]);
+                        month = new Month(Long.parseLong(fields[2]));
+                        mMonths.put(NOAAXML.monthKey(yyyymm / 100, yyyymm % 100), month);
+                    } else if(TYPE_ITEM.equals(fields[0]) && month != null && fields.length % 2 == 1) {
+                        String[] item = new String[fields.length - 1];
+                        for(int i = 1; i < fields.length; i++) {
+                            item[i - 1] = unescape(fields[i]);
+                        }
+                        month.mItems.add(item);
+                    } else {
+                        throw new IOException("Malformed line in cache file " + mFile);
+                    }
+                }
+                if(!ended) {
+                    throw new IOException("Truncated cache file " + mFile);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed line in cache file " + mFile);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /* Collects a fetched response and stores it in its entry when the response ends
+    |  Items are filed under the month of their timeStamp, items without a readable timestamp are filed under the first month
+    |  Nothing is stored if the response is a fault
+    |*/
+    public static class Recorder implements ResponseHandler {
+        private Entry mEntry;
+        private int mFirst, mLast;
+        private long mFetched = System.currentTimeMillis();
+        private List<String[]> mMetadata = new ArrayList<String[]>();
+        private Map<Integer, List<String[]>> mItems = new HashMap<Integer, List<String[]>>();
+        private List<String> mItem = new ArrayList<String>();
+        private int mItemMonth;
+        private String mFaultString = null, mFaultActor = null;
+        private boolean mFault = false, mComplete = false;
+
+        private Recorder(Entry entry, int first, int last) {
+            mEntry = entry;
+            mFirst = first;
+            mLast = last;
+        }
+
+        public void startResponse() {
+        }
+
+        public void metadata(String tagName, String value) {
+            mMetadata.add(new String[] {tagName, value});
+        }
+
+        public void startItem() {
+            mItem.clear();
+            mItemMonth = mFirst;
+        }
+
+        public void itemValue(String tagName, String value) {
+            mItem.add(tagName);
+            mItem.add(value);
+            if(NOAAXML.ELEM_TIME_STAMP.equals(tagName)) {
+                int month = NOAAXML.monthKeyOf(value);
+                mItemMonth = (month < 0) ? mFirst : month;
+            }
+        }
+
+        public void endItem() {
+            if(mItemMonth < mFirst || mItemMonth > mLast) {
+                return; //the request did not ask for this month
+            }
+            List<String[]> items = mItems.get(mItemMonth);
+            if(items == null) {
+                items = new ArrayList<String[]>();
+                mItems.put(mItemMonth, items);
+            }
+            items.add(mItem.toArray(new String[mItem.size()]));
+        }
+
+        public void endResponse() {
+            if(mFault) {
+                return;
+            }
+            mEntry.mMetadata = mMetadata;
+            for(int month = mFirst; month <= mLast; month++) {
+                Month stored = new Month(mFetched);
+                List<String[]> items = mItems.get(month);
+                if(items != null) {
+                    stored.mItems = items;
+                }
+                mEntry.mMonths.put(month, stored);
+            }
+            mComplete = true;
+        }
+
+        public void fault(String faultString, String faultActor) {
+            mFault = true;
+            mFaultString = faultString;
+            mFaultActor = faultActor;
+        }
+
+        public boolean hasFault() {
+            return mFault;
+        }
+        public String getFaultString() {
+            return mFaultString;
+        }
+        public String getFaultActor() {
+            return mFaultActor;
+        }
+
+        //True once a complete response has been stored
+        public boolean isComplete() {
+            return mComplete;
+        }
+    }
+
+    private static class Month {
+        private long mFetched;
+        private List<String[]> mItems = new ArrayList<String[]>();
+
+        private Month(long fetched) {
+            mFetched = fetched;
+        }
+    }
+
+    private static void writeLine(Writer out, String type, String[] fields) throws IOException {
+        out.write(type);
+        for(String field : fields) {
+            out.write('\t');
+            out.write(escape(field));
+        }
+        out.write('\n');
+    }
+
+    static String escape(String value) {
+        if(value == null) {
+            return NULL_VALUE;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '\\') {
+                sb.append("\\\\");
+            } else if(c == '\t') {
+                sb.append("\\t");
+            } else if(c == '\n') {
+                sb.append("\\n");
+            } else if(c == '\r') {
+                sb.append("\\r");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String value) {
+        if(NULL_VALUE.equals(value)) {
+            return null;
+        }
+        if(value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                if(next == 't') {
+                    sb.append('\t');
+                } else if(next == 'n') {
+                    sb.append('\n');
+                } else if(next == 'r') {
+                    sb.append('\r');
+                } else {
+                    sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,24 @@
+package NOAAsoap;
+
+/**
+
+    Receives the contents of a getWLVerifiedMonthlyAndMetadata response as it is parsed.
+    Values are delivered exactly as SOAPElement.getValue() would report them, so null is passed for empty or non-leaf elements.
+
+**/
+public interface ResponseHandler {
+    //Called once when the response element (the first child of the SOAP body) is opened
+    public void startResponse();
+
+    //Called for every leaf element of the response which is not part of the data node
+    public void metadata(String tagName, String value);
+
+    public void startItem();
+    public void itemValue(String tagName, String value);
+    public void endItem();
+
+    //Called once when the response element is closed
+    public void endResponse();
+
+    public void fault(String faultString, String faultActor);
+}
@@ -0,0 +1,170 @@
+package NOAAsoap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/**
+
+    Streaming (StAX) parser for getWLVerifiedMonthlyAndMetadata responses.
+    The response is never held in memory, each value is passed to a ResponseHandler as soon as its element closes.
+
+    The traversal mirrors the SAAJ walk in SaajQuery.handleResponse():
+        Body => <response>                 (only the first child of the body is read)
+                    <metadata> value </metadata>
+                    ...
+                    <data>
+                        <item>
+                            <timeStamp> value </timeStamp>
+                            <datum_name> value </datum_name>
+                            ...
+                        </item>
+                    </data>
+                </response>
+
+**/
+public class ResponseParser {
+    private static final String ELEM_BODY = "Body";
+    private static final String ELEM_FAULT = "Fault";
+    private static final String ELEM_FAULT_STRING = "faultstring";
+    private static final String ELEM_FAULT_ACTOR = "faultactor";
+
+    //Depths below are relative to the SOAP body
+    private static final int DEPTH_RESPONSE = 1;
+    private static final int DEPTH_METADATA = 2;
+    private static final int DEPTH_ITEM = 3;
+    private static final int DEPTH_ITEM_VALUE = 4;
+
+    //XMLInputFactory is safe to share once configured
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    //The JDK's own implementation, newInstance() would first search the system properties, jaxp.properties and every jar on
+    //the class path for another one, which is a noticeable part of a short run's startup (and of no use to a native image)
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newDefaultFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        return factory;
+    }
+
+    //Returns the number of items read, the stream is left open, the caller may still need to drain or close it
+    public static int parse(InputStream in, ResponseHandler handler) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new FilterInputStream(in) {
+            @Override
+            public void close() {
+                //the JDK reader closes its input when it reaches the end of the document
+            }
+        });
+        try {
+            return parse(reader, handler);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int parse(XMLStreamReader reader, ResponseHandler handler) throws XMLStreamException {
+        StringBuilder text = new StringBuilder(64);
+        boolean capturing = false, sawText = false;
+        String capturedName = null;
+
+        int depth = 0, bodyDepth = -1;
+        boolean responseSeen = false, inResponse = false, inFault = false, inData = false, inItem = false;
+        String faultString = null, faultActor = null;
+        int items = 0;
+
+        while(reader.hasNext()) {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String tagName = reader.getLocalName();
+                //a nested element means the captured element is not a leaf, SAAJ reports no value for it
+                capturing = false;
+
+                if(bodyDepth < 0) {
+                    if(ELEM_BODY.equals(tagName)) {
+                        bodyDepth = depth;
+                    }
+                    continue;
+                }
+
+                int relative = depth - bodyDepth;
+                if(relative == DEPTH_RESPONSE) {
+                    if(ELEM_FAULT.equals(tagName)) {
+                        inFault = true;
+                    } else if(!responseSeen) {
+                        responseSeen = true;
+                        inResponse = true;
+                        handler.startResponse();
+                    }
+                } else if(relative == DEPTH_METADATA && (inFault || inResponse)) {
+                    if(inResponse && NOAAXML.NODE_DATA.equals(tagName)) {
+                        inData = true;
+                    } else {
+                        capturedName = tagName;
+                        capturing = true;
+                    }
+                } else if(relative == DEPTH_ITEM && inData) {
+                    if(NOAAXML.NODE_ITEM.equals(tagName)) {
+                        inItem = true;
+                        handler.startItem();
+                    }
+                } else if(relative == DEPTH_ITEM_VALUE && inItem) {
+                    capturedName = tagName;
+                    capturing = true;
+                }
+
+                if(capturing) {
+                    text.setLength(0);
+                    sawText = false;
+                }
+            } else if(event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                        || event == XMLStreamConstants.SPACE) {
+                if(capturing) {
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    sawText = true;
+                }
+            } else if(event == XMLStreamConstants.END_ELEMENT) {
+                if(bodyDepth >= 0) {
+                    int relative = depth - bodyDepth;
+                    String value = (capturing && sawText) ? text.toString() : null;
+
+                    if(relative == DEPTH_ITEM_VALUE && inItem) {
+                        handler.itemValue(capturedName, value);
+                    } else if(relative == DEPTH_ITEM && inItem) {
+                        inItem = false;
+                        items++;
+                        handler.endItem();
+                    } else if(relative == DEPTH_METADATA) {
+                        if(inData) {
+                            inData = false;
+                        } else if(inFault) {
+                            if(ELEM_FAULT_STRING.equals(capturedName)) {
+                                faultString = value;
+                            } else if(ELEM_FAULT_ACTOR.equals(capturedName)) {
+                                faultActor = value;
+                            }
+                        } else if(inResponse) {
+                            handler.metadata(capturedName, value);
+                        }
+                    } else if(relative == DEPTH_RESPONSE) {
+                        if(inFault) {
+                            inFault = false;
+                            handler.fault(faultString, faultActor);
+                        } else if(inResponse) {
+                            inResponse = false;
+                            handler.endResponse();
+                        }
+                    } else if(relative == 0) {
+                        bodyDepth = -1;
+                    }
+                }
+                capturing = false;
+                depth--;
+            }
+        }
+        return items;
+    }
+}
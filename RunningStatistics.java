@@ -0,0 +1,126 @@
+package NOAAsoap;
+
+/**
+
+    Single pass statistics of a monthly value: count, mean, standard deviation and the least squares trend against the month,
+    plus the minimum and maximum. Nothing but a handful of doubles is kept, however many values are added.
+
+    Mean, variance and covariance are updated with Welford's algorithm, each value moves the running means by its distance
+    from them rather than summing squares, which would lose every significant digit of a sea level around a large datum offset.
+    Two partial results (eg. of different stations, or of a station split into chunks) are combined exactly with the pairwise
+    update of Chan et al., so a reduction over many stations can run in any order, in parallel:
+
+        n      = na + nb
+        mean   = meanA + (meanB - meanA) * nb / n
+        M2     = M2A + M2B + (meanB - meanA)^2 * na * nb / n        (and likewise the co-moment of month and value)
+
+    The trend is the slope of value over month, reported per decade (120 months). Missing values (NaN) are not added.
+    Not thread safe, a reduction combines copies.
+
+**/
+public class RunningStatistics {
+    public static final int MONTHS_PER_DECADE = 120;
+
+    private long mCount = 0;
+    private double mMean = 0, mM2 = 0;
+    private double mMonthMean = 0, mMonthM2 = 0, mCoMoment = 0;
+    private double mMin = Double.NaN, mMax = Double.NaN;
+
+    public RunningStatistics() {
+    }
+
+    public RunningStatistics(RunningStatistics other) {
+        mCount = other.mCount;
+        mMean = other.mMean;
+        mM2 = other.mM2;
+        mMonthMean = other.mMonthMean;
+        mMonthM2 = other.mMonthM2;
+        mCoMoment = other.mCoMoment;
+        mMin = other.mMin;
+        mMax = other.mMax;
+    }
+
+    //Adds the value of a month (a NOAAXML month key), NaN is ignored
+    public void add(int month, double value) {
+        if(Double.isNaN(value)) {
+            return;
+        }
+        mCount++;
+        double monthDelta = month - mMonthMean;
+        double delta = value - mMean;
+        mMonthMean += monthDelta / mCount;
+        mMean += delta / mCount;
+        //one factor before the update of the means and one after, as in Welford's update of M2
+        mMonthM2 += monthDelta * (month - mMonthMean);
+        mM2 += delta * (value - mMean);
+        mCoMoment += monthDelta * (value - mMean);
+        if(mCount == 1 || value < mMin) {
+            mMin = value;
+        }
+        if(mCount == 1 || value > mMax) {
+            mMax = value;
+        }
+    }
+
+    //Adds everything added to other, as though its values had been added to this
+    public void combine(RunningStatistics other) {
+        if(other.mCount == 0) {
+            return;
+        }
+        if(mCount == 0) {
+            mCount = other.mCount;
+            mMean = other.mMean;
+            mM2 = other.mM2;
+            mMonthMean = other.mMonthMean;
+            mMonthM2 = other.mMonthM2;
+            mCoMoment = other.mCoMoment;
+            mMin = other.mMin;
+            mMax = other.mMax;
+            return;
+        }
+        long count = mCount + other.mCount;
+        double weight = (double)mCount * other.mCount / count;
+        double delta = other.mMean - mMean;
+        double monthDelta = other.mMonthMean - mMonthMean;
+
+        mM2 += other.mM2 + delta * delta * weight;
+        mMonthM2 += other.mMonthM2 + monthDelta * monthDelta * weight;
+        mCoMoment += other.mCoMoment + monthDelta * delta * weight;
+        mMean += delta * other.mCount / count;
+        mMonthMean += monthDelta * other.mCount / count;
+        mCount = count;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    //NaN without values
+    public double getMean() {
+        return (mCount == 0) ? Double.NaN : mMean;
+    }
+
+    //Sample standard deviation, NaN with fewer than two values
+    public double getStandardDeviation() {
+        return (mCount < 2) ? Double.NaN : Math.sqrt(mM2 / (mCount - 1));
+    }
+
+    //Least squares slope of value over month, in units of the value per decade, NaN unless at least two months differ
+    public double getTrendPerDecade() {
+        return (mCount < 2 || mMonthM2 <= 0) ? Double.NaN : mCoMoment / mMonthM2 * MONTHS_PER_DECADE;
+    }
+
+    public double getMin() {
+        return mMin;
+    }
+    public double getMax() {
+        return mMax;
+    }
+
+    @Override
+    public String toString() {
+        return "RunningStatistics, count:" + mCount + ", mean:" + getMean() + ", sd:" + getStandardDeviation() + ", trend/decade:" + getTrendPerDecade();
+    }
+}
@@ -0,0 +1,425 @@
+package NOAAsoap;
+
+import javax.xml.soap.*;
+import java.util.Iterator;
+import java.net.URL;
+import java.io.*;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+
+    The SAAJ request/parse path (-saaj): a request is built as a SOAPMessage, sent over a SOAPConnection and the response is
+    walked as a DOM. Kept apart from NOAAQuery so that javax.xml.soap (and the service loader discovery of its factories) is
+    only ever loaded when -saaj is given, the streaming path does not touch this class.
+
+    Nothing but IOException leaves this class, SOAPException is wrapped so that callers need no javax.xml.soap imports.
+
+**/
+public class SaajQuery {
+    //SOAPConnection makes no thread safety guarantees, so every worker thread is given its own connection
+    private static SOAPConnectionFactory soapConnectionFactory = null;
+    private static final ThreadLocal<SOAPConnection> workerConnection = new ThreadLocal<SOAPConnection>();
+    private static final List<SOAPConnection> openConnections = Collections.synchronizedList(new ArrayList<SOAPConnection>());
+
+    //The factories are looked up once, on first use, rather than for every message
+    private static class Factories {
+        private static final MessageFactory MESSAGE;
+        private static final SOAPFactory SOAP;
+        static {
+            try {
+                MESSAGE = MessageFactory.newInstance();
+                SOAP = SOAPFactory.newInstance();
+            } catch (SOAPException e) {
+                throw new IllegalStateException("No SAAJ implementation available", e);
+            }
+        }
+    }
+
+    //Creates the connection factory, must be called before the first query
+    public static void init() throws IOException {
+        try {
+            soapConnectionFactory = SOAPConnectionFactory.newInstance();
+        } catch (SOAPException e) {
+            throw new IOException(e.toString(), e);
+        }
+    }
+
+    //Closes every connection opened by the worker threads
+    public static void close() {
+        synchronized(openConnections) {
+            for(SOAPConnection connection : openConnections) {
+                try {
+                    connection.close();
+                } catch (SOAPException e) {
+                    NOAAQuery.printDebug(() -> "Failed to close a connection: " + e.toString());
+                }
+            }
+            openConnections.clear();
+        }
+    }
+
+    //Queries a single station and writes its output, see NOAAQuery.queryStation()
+    public static void queryStation(Request r, FileDescription desc, URL endpoint) throws IOException {
+        try {
+            long encodeStart = System.nanoTime();
+            SOAPMessage message = prepareMessage(r);
+            NOAAQuery.record(Metrics.Phase.ENCODE, encodeStart);
+            SOAPMessage response = call(message, endpoint);
+            handleResponse(response, r, desc);
+        } catch (SOAPException e) {
+            throw new IOException(e.toString(), e);
+        }
+    }
+
+    //Parses a saved response (-replay) and writes it as if it had just been received
+    public static void replay(InputStream in, Request r, FileDescription desc) throws IOException {
+        try {
+            MimeHeaders headers = new MimeHeaders();
+            headers.addHeader("Content-Type", "text/xml; charset=utf-8");
+            SOAPMessage response = Factories.MESSAGE.createMessage(headers, in);
+            handleResponse(response, r, desc);
+        } catch (SOAPException e) {
+            throw new IOException(e.toString(), e);
+        }
+    }
+
+    private static SOAPMessage call(SOAPMessage message, URL endpoint) throws SOAPException, IOException {
+        ConcurrencyLimiter limiter = NOAAQuery.getLimiter();
+        Metrics metrics = NOAAQuery.getMetrics();
+        ConcurrencyLimiter.Permit permit = (limiter != null) ? NOAAQuery.acquirePermit() : null;
+        boolean dropped = true;
+        long start = System.nanoTime();
+        try {
+            SOAPMessage response = getConnection().call(message, endpoint);
+            if(permit != null || metrics != null) {
+                dropped = response.getSOAPBody().hasFault();
+            }
+            if(metrics != null) {
+                NOAAQuery.record(Metrics.Phase.NETWORK, start);
+                metrics.addRequest();
+                if(dropped) {
+                    metrics.addFault();
+                }
+                String[] length = response.getMimeHeaders().getHeader("Content-Length");
+                if(length != null && length.length > 0) {
+                    try {
+                        metrics.addBytes(Long.parseLong(length[0].trim()));
+                    } catch (NumberFormatException e) {
+                        NOAAQuery.printDebug(() -> "Unreadable Content-Length (" + length[0] + ")");
+                    }
+                }
+            }
+            return response;
+        } finally {
+            if(permit != null) {
+                permit.release(dropped);
+            }
+        }
+    }
+
+    private static SOAPConnection getConnection() throws SOAPException {
+        SOAPConnection connection = workerConnection.get();
+        if(connection == null) {
+            connection = soapConnectionFactory.createConnection();
+            workerConnection.set(connection);
+            openConnections.add(connection);
+        }
+        return connection;
+    }
+
+    static void handleResponse(SOAPMessage response, Request r, FileDescription desc) {
+        Metrics metrics = NOAAQuery.getMetrics();
+        RawArchive rawArchive = NOAAQuery.getRawArchive();
+        long start = System.nanoTime();
+        int items = 0;
+        try{
+            SOAPBody responseBody = response.getSOAPBody();
+
+            //Raw passthrough
+            if (NOAAQuery.isEnabled(NOAAQuery.Flag.ENABLE_RAW_OUTPUT)) {
+                try {
+                    OutputStream rawOut = (rawArchive != null) ? rawArchive.record(r) : new FileOutputStream (desc.getDirectoryName() + desc.getFileName() + NOAAQuery.RAW_SUFFIX);
+                    response.writeTo(rawOut);
+                    rawOut.close();
+                } catch (IOException e) {
+                    NOAAQuery.printError("[ERROR] Exception occurred while attempting to write raw output.\n" + e.toString());
+                }
+            }
+
+            desc.addExtensionToFileName();
+
+            if (responseBody.hasFault()) {
+                SOAPFault fault = responseBody.getFault();
+                String actor = fault.getFaultActor();
+                //System.out.println("Fault contains: ");
+                //System.out.println("Fault code: " + fault.getFaultCodeAsName().getQualifiedName());
+                NOAAQuery.printFault(fault.getFaultString(), actor);
+
+            } else {
+                if(NOAAQuery.getCatalog() != null) {
+                    catalogStation(NOAAQuery.getCatalog(), responseBody);
+                }
+                if(NOAAQuery.getSummaryTable() != null) {
+                    StationSummary summary = new StationSummary(r.getColumns());
+                    walkResponse(responseBody, summary);
+                    NOAAQuery.getSummaryTable().add(summary);
+                }
+
+                Iterator<?> iterator = responseBody.getChildElements();
+                Iterator<?> iterator2 = null;
+                Iterator<?> iterator3 = null;
+
+                String tagName = null;
+                SOAPElement se = null;
+
+                //every requested column is written by the StationWriter, as on the streaming path (see also XmlSeriesWriter)
+                if(NOAAQuery.isEnabled(NOAAQuery.Flag.ENABLE_FILE_OUTPUT)) {
+                    StationWriter writer = new StationWriter(desc, r.getColumns(), true, null);
+                    writer.setWriterThread(NOAAQuery.getWriterThread());
+                    writer.setMetrics(metrics);
+                    try {
+                        items = walkResponse(responseBody, writer);
+                    } finally {
+                        writer.close();
+                    }
+                }
+
+                //A station's console dump is collected and logged in one piece, see NOAAQuery.printVerboseLog()
+                if(NOAAQuery.isEnabled(NOAAQuery.Flag.ENABLE_VERBOSE_CONSOLE)) {
+                    StringBuilder verboseLog = new StringBuilder();
+                    iterator = responseBody.getChildElements();
+                    if (iterator.hasNext()) {
+                        se = (SOAPElement) iterator.next();
+                        iterator = se.getChildElements();
+                        while (iterator.hasNext()) {
+                            se = (SOAPElement) iterator.next();
+                            tagName = se.getElementName().getLocalName();
+                            NOAAQuery.appendLine(verboseLog, NOAAQuery.formatMetadata(tagName, se.getValue()));
+                            if (NOAAXML.NODE_DATA.equals(tagName)) {
+                                iterator2 = se.getChildElements();
+                                while (iterator2.hasNext()) {
+                                    se = (SOAPElement) iterator2.next();
+                                    tagName = se.getElementName().getLocalName();
+                                    iterator3 = se.getChildElements();
+                                    while (iterator3.hasNext()) {
+                                        se = (SOAPElement) iterator3.next();
+                                        NOAAQuery.appendLine(verboseLog, NOAAQuery.formatData(se.getElementName().getLocalName(), se.getValue()));
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    NOAAQuery.printVerboseLog(verboseLog);
+                }
+            }
+        }catch(Exception e) {
+            NOAAQuery.printError("[ERROR] " + e.toString());
+        } finally {
+            if(metrics != null) {
+                metrics.record(Metrics.Phase.PARSE, System.nanoTime() - start);
+                if(items > 0) {
+                    metrics.addItems(items);
+                }
+            }
+        }
+    }
+
+    //Adds the station described by the response's metadata to the station catalog, see CatalogRecorder
+    private static void catalogStation(StationCatalog catalog, SOAPBody responseBody) {
+        String id = null, name = null, latitude = null, longitude = null, state = null;
+        Iterator<?> iterator = responseBody.getChildElements();
+        if (iterator.hasNext()) {
+            iterator = ((SOAPElement) iterator.next()).getChildElements();
+            while (iterator.hasNext()) {
+                Object child = iterator.next();
+                if (!(child instanceof SOAPElement)) {
+                    continue;
+                }
+                SOAPElement se = (SOAPElement) child;
+                String tagName = se.getElementName().getLocalName();
+                if (NOAAXML.ELEM_STATION_ID.equals(tagName)) {
+                    id = se.getValue();
+                } else if (NOAAXML.ELEM_STATION_NAME.equals(tagName)) {
+                    name = se.getValue();
+                } else if (NOAAXML.ELEM_LATITUDE.equals(tagName)) {
+                    latitude = se.getValue();
+                } else if (NOAAXML.ELEM_LONGITUDE.equals(tagName)) {
+                    longitude = se.getValue();
+                } else if (NOAAXML.ELEM_STATE.equals(tagName)) {
+                    state = se.getValue();
+                }
+            }
+        }
+        if(!catalog.update(id, name, latitude, longitude, state)) {
+            final String station = id;
+            NOAAQuery.printDebug(() -> "Station " + station + " has no readable position, it was not added to the catalog");
+        }
+    }
+
+    //Delivers the response to a ResponseHandler, as the streaming parser would, and returns the number of items delivered
+    private static int walkResponse(SOAPBody responseBody, ResponseHandler handler) {
+        int count = 0;
+        Iterator<?> iterator = responseBody.getChildElements();
+        if (!iterator.hasNext()) {
+            return count;
+        }
+        handler.startResponse();
+        iterator = ((SOAPElement) iterator.next()).getChildElements();
+        while (iterator.hasNext()) {
+            Object child = iterator.next();
+            if (!(child instanceof SOAPElement)) {
+                continue;
+            }
+            SOAPElement se = (SOAPElement) child;
+            String tagName = se.getElementName().getLocalName();
+            if (!NOAAXML.NODE_DATA.equals(tagName)) {
+                handler.metadata(tagName, se.getValue());
+                continue;
+            }
+            Iterator<?> items = se.getChildElements();
+            while (items.hasNext()) {
+                Object item = items.next();
+                if (!(item instanceof SOAPElement)) {
+                    continue;
+                }
+                handler.startItem();
+                Iterator<?> values = ((SOAPElement) item).getChildElements();
+                while (values.hasNext()) {
+                    Object value = values.next();
+                    if (value instanceof SOAPElement) {
+                        handler.itemValue(((SOAPElement) value).getElementName().getLocalName(), ((SOAPElement) value).getValue());
+                    }
+                }
+                handler.endItem();
+                count++;
+            }
+        }
+        handler.endResponse();
+        return count;
+    }
+
+    public static SOAPMessage prepareMessage(Request r) {
+        SOAPMessage message = null;
+        try {
+            SOAPFactory soapFactory = Factories.SOAP;
+
+            MessageFactory factory = Factories.MESSAGE;
+            message = factory.createMessage();
+            SOAPPart part = message.getSOAPPart();
+            SOAPEnvelope envelope = part.getEnvelope();
+            envelope.addNamespaceDeclaration("water", NOAAXML.NAMESPACE_WATER);
+
+            MimeHeaders headers = message.getMimeHeaders();
+            headers.addHeader("SOAPAction", NOAAXML.SOAP_ACTION);
+
+
+            SOAPBody body = envelope.getBody();
+            Name bodyName = soapFactory.createName(NOAAXML.OPERATION, "water", NOAAXML.NAMESPACE_WSDL);
+            SOAPBodyElement bodyElement = body.addBodyElement(bodyName);
+
+            //Constructing the body for the request
+            Name name = soapFactory.createName(NOAAXML.ELEM_STATION_ID);
+            SOAPElement symbol = bodyElement.addChildElement(name);
+            symbol.addTextNode(r.getStation());
+            name = soapFactory.createName(NOAAXML.ELEM_DATE_BEGIN);
+            symbol = bodyElement.addChildElement(name);
+            symbol.addTextNode(r.getStart());
+            name = soapFactory.createName(NOAAXML.ELEM_DATE_END);
+            symbol = bodyElement.addChildElement(name);
+            symbol.addTextNode(r.getEnd());
+            name = soapFactory.createName(NOAAXML.ELEM_DATUM);
+            symbol = bodyElement.addChildElement(name);
+            symbol.addTextNode(r.getDatum());
+            name = soapFactory.createName(NOAAXML.ELEM_UNIT);
+            symbol = bodyElement.addChildElement(name);
+            symbol.addTextNode("0");
+            name = soapFactory.createName(NOAAXML.ELEM_TIME_ZONE);
+            symbol = bodyElement.addChildElement(name);
+            symbol.addTextNode("0"); //do conversions on our end, where we know NOAA database timezone is GMT
+        } catch (SOAPException e) {
+            NOAAQuery.printError("[ERROR] " + e.toString());
+        }
+        return message;
+    }
+
+    /* Writes the requested values found in the given SOAPElement as long as it conforms to the following structure:
+    |  se => <item>
+    |            <datum_name> value </datum_name>
+    |            <datum_name> value </datum_name>
+    |            ...
+    |            <datum_name> value </datum_name>
+    |        </item>
+    |
+    | CSV output format:
+    |     YYYY/MM/DD HH:MM, datum_value
+    |     YYYY/MM/DD HH:MM, datum_value
+    |     ...
+    |
+    | Only the first datum is written, handleResponse() writes every requested column through a StationWriter instead,
+    | this remains as the baseline of ResponseBenchmark
+    | Returns whether a row was written, an item without a readable timestamp is left out
+    |*/
+    public static boolean writeItemNode(SOAPElement se, BlockWriter fOut, FileDescription.Format format, String datum) {
+        Iterator<?> iterator;
+        String tagName, timeStamp;
+        StringBuilder csValues;
+        SOAPElement elem = se;
+
+        iterator = elem.getChildElements();
+        if(format == FileDescription.Format.CSV) {
+            try {
+                csValues = new StringBuilder(32);
+                timeStamp = null;
+                while (iterator.hasNext()) {
+                    elem = (SOAPElement) iterator.next();
+                    tagName = elem.getElementName().getLocalName();
+                    if (tagName != null && NOAAXML.ELEM_TIME_STAMP.equals(tagName)) {
+                        timeStamp = elem.getValue();
+                    } else if (tagName != null && datum.equals(tagName)) {
+                        csValues.append(", ").append(elem.getValue());
+                    }
+                }
+                //a row without a readable timestamp would break -incremental and -matrix, which read the files back
+                if(NOAAXML.monthKeyOf(timeStamp) < 0) {
+                    NOAAQuery.printDebug("Item without a readable timestamp left out of the output file");
+                    return false;
+                }
+                try {
+                    fOut.write(timeStamp);
+                    fOut.write(csValues);
+                    fOut.write('\n');
+                    return true;
+                }catch (IOException e) {
+                    NOAAQuery.printError("[ERROR] Failure when writing data to file.");
+                }
+            } catch (Exception e) {
+                NOAAQuery.printDebug("writeItemNode() was called on a bad node, which resulted in a traversal exception.");
+            }
+        }
+        return false;
+        //XML output is not written item by item, see StationWriter and XmlSeriesWriter
+    }
+
+
+    /* If the given SOAPElement is a metadata element, prints/formats it to console
+    |
+    |*/
+    public static void printMetadata(SOAPElement se) {
+        String line = NOAAQuery.formatMetadata(se.getElementName().getLocalName(), se.getValue());
+        if (line != null) {
+            ConsoleLog.out(line);
+        }
+    }
+
+    /* If the given SOAPElement is an observation element (datum with a value), prints/formats it to console
+    |
+    |*/
+    public static void printData(SOAPElement se) {
+        String line = NOAAQuery.formatData(se.getElementName().getLocalName(), se.getValue());
+        if (line != null) {
+            ConsoleLog.out(line);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package NOAAsoap;
+
+/**
+
+    ResponseHandler which collects a response into a StationSeries.
+    Values are parsed as they are streamed, the response text is never kept. The inferred element is recorded in the series'
+    inferred flags rather than as a column, items without a readable timestamp cannot be placed in a series and are left out.
+
+**/
+public class SeriesBuilder implements ResponseHandler {
+    private StationSeries mSeries;
+    private String[] mColumns;
+    private double[] mRowValues;
+    private int mRowMonth;
+    private boolean mRowInferred;
+    private boolean mFault = false, mComplete = false;
+
+    //columns may include NOAAXML.ELEM_INFERRED, it is not made into a column of the series
+    public SeriesBuilder(String[] columns) {
+        int count = 0;
+        for(String column : columns) {
+            if(!NOAAXML.ELEM_INFERRED.equals(column)) {
+                count++;
+            }
+        }
+        mColumns = new String[count];
+        count = 0;
+        for(String column : columns) {
+            if(!NOAAXML.ELEM_INFERRED.equals(column)) {
+                mColumns[count++] = column;
+            }
+        }
+        mRowValues = new double[mColumns.length];
+        mSeries = new StationSeries(mColumns);
+    }
+
+    public StationSeries getSeries() {
+        return mSeries;
+    }
+
+    public boolean hasFault() {
+        return mFault;
+    }
+
+    //True once the end of the response element has been read
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    public void startResponse() {
+    }
+
+    public void metadata(String tagName, String value) {
+        if(NOAAXML.ELEM_STATION_ID.equals(tagName)) {
+            mSeries.setStationId(value);
+        } else if(NOAAXML.ELEM_STATION_NAME.equals(tagName)) {
+            mSeries.setStationName(value);
+        } else if(NOAAXML.ELEM_STATE.equals(tagName)) {
+            mSeries.setState(value);
+        } else if(NOAAXML.ELEM_LATITUDE.equals(tagName)) {
+            mSeries.setLatitude(parseValue(value));
+        } else if(NOAAXML.ELEM_LONGITUDE.equals(tagName)) {
+            mSeries.setLongitude(parseValue(value));
+        }
+    }
+
+    public void startItem() {
+        mRowMonth = -1;
+        mRowInferred = false;
+        for(int i = 0; i < mRowValues.length; i++) {
+            mRowValues[i] = Double.NaN;
+        }
+    }
+
+    public void itemValue(String tagName, String value) {
+        if(NOAAXML.ELEM_TIME_STAMP.equals(tagName)) {
+            mRowMonth = NOAAXML.monthKeyOf(value);
+        } else if(NOAAXML.ELEM_INFERRED.equals(tagName)) {
+            mRowInferred = parseValue(value) > 0;
+        } else {
+            for(int i = 0; i < mColumns.length; i++) {
+                if(mColumns[i].equals(tagName)) {
+                    mRowValues[i] = parseValue(value);
+                    break;
+                }
+            }
+        }
+    }
+
+    public void endItem() {
+        if(mRowMonth < 0) {
+            NOAAQuery.printDebug("Item without a readable timestamp left out of station series");
+            return;
+        }
+        int row = mSeries.addRow(mRowMonth);
+        for(int i = 0; i < mRowValues.length; i++) {
+            mSeries.setValue(i, row, mRowValues[i]);
+        }
+        if(mRowInferred) {
+            mSeries.setInferred(row, true);
+        }
+    }
+
+    public void endResponse() {
+        mComplete = true;
+    }
+
+    public void fault(String faultString, String faultActor) {
+        mFault = true;
+    }
+
+    //Missing or unreadable values are NaN, boolean flags are 1 or 0
+    public static double parseValue(String value) {
+        if(value == null) {
+            return Double.NaN;
+        }
+        String trimmed = value.trim();
+        if("true".equalsIgnoreCase(trimmed)) {
+            return 1;
+        } else if("false".equalsIgnoreCase(trimmed)) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(trimmed);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
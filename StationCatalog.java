@@ -0,0 +1,434 @@
+package NOAAsoap;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+
+    Local catalog of the stations seen in responses (-catalog), so that stations can be selected by region without querying them.
+    Every response carries its station's metadata, each station is kept with its latest name, position and state, in a text file:
+
+        #NOAAQuery station catalog 1
+        stationId   latitude   longitude   state   stationName
+
+    Fields are tab separated and escaped as in the response cache. The file is rewritten in one step when the run ends.
+
+    Stations are indexed on a grid of 1 degree cells, a bounding box or radius query only looks at the cells it overlaps.
+    A bounding box whose minimum longitude is greater than its maximum crosses the antimeridian. Distances are great circle
+    distances on a sphere of the earth's mean radius.
+
+**/
+public class StationCatalog {
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private static final String HEADER = "#NOAAQuery station catalog 1";
+    private static final int CELLS_PER_DEGREE = 1;
+    private static final int LATITUDE_CELLS = 180 * CELLS_PER_DEGREE;
+    private static final int LONGITUDE_CELLS = 360 * CELLS_PER_DEGREE;
+
+    public static class Station {
+        private final String mId, mName, mState;
+        private final double mLatitude, mLongitude;
+
+        public Station(String id, String name, String state, double latitude, double longitude) {
+            mId = id;
+            mName = name;
+            mState = state;
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
+
+        public String getId() {
+            return mId;
+        }
+        public String getName() {
+            return mName;
+        }
+        public String getState() {
+            return mState;
+        }
+        public double getLatitude() {
+            return mLatitude;
+        }
+        public double getLongitude() {
+            return mLongitude;
+        }
+
+        private boolean sameAs(Station other) {
+            return other != null && mLatitude == other.mLatitude && mLongitude == other.mLongitude &&
+                   String.valueOf(mName).equals(String.valueOf(other.mName)) && String.valueOf(mState).equals(String.valueOf(other.mState));
+        }
+
+        public String toString() {
+            return mId + "\t" + mLatitude + "\t" + mLongitude + "\t" + ((mState == null) ? "" : mState) + "\t" + ((mName == null) ? "" : mName);
+        }
+    }
+
+    /* A selection of stations, every criterion which is set must hold
+    |  box is {minLatitude, minLongitude, maxLatitude, maxLongitude}, radius is {latitude, longitude, km}, states are upper case
+    |*/
+    public static class Selection {
+        private double[] mBox = null;
+        private double[] mRadius = null;
+        private Set<String> mStates = null;
+
+        public double[] getBox() {
+            return mBox;
+        }
+        public void setBox(double[] box) {
+            mBox = box;
+        }
+        public double[] getRadius() {
+            return mRadius;
+        }
+        public void setRadius(double[] radius) {
+            mRadius = radius;
+        }
+        public Set<String> getStates() {
+            return mStates;
+        }
+        public void setStates(Set<String> states) {
+            mStates = states;
+        }
+
+        public boolean isEmpty() {
+            return mBox == null && mRadius == null && mStates == null;
+        }
+
+        public String toString() {
+            return "Selection, box:" + Arrays.toString(mBox) + ", radius:" + Arrays.toString(mRadius) + ", states:" + mStates;
+        }
+    }
+
+    private File mFile;
+    private final Map<String, Station> mStations = new HashMap<String, Station>();
+    private final Map<Integer, List<Station>> mCells = new HashMap<Integer, List<Station>>();
+    private int mUpdated = 0;
+
+    private StationCatalog(File file) {
+        mFile = file;
+    }
+
+    //Loads a catalog, a file which does not exist yet is an empty catalog
+    public static StationCatalog load(File file) throws IOException {
+        StationCatalog catalog = new StationCatalog(file);
+        if(file.isFile()) {
+            catalog.read();
+        }
+        return catalog;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public synchronized int size() {
+        return mStations.size();
+    }
+
+    //The number of stations added or changed since the catalog was loaded
+    public synchronized int getUpdated() {
+        return mUpdated;
+    }
+
+    public synchronized Station get(String id) {
+        return mStations.get(id);
+    }
+
+    /* Adds or replaces a station from the metadata of a response, values as they appear in the response
+    |  Returns false (and leaves the catalog as it was) if there is no id or the position cannot be read
+    |*/
+    public boolean update(String id, String name, String latitude, String longitude, String state) {
+        if(id == null || latitude == null || longitude == null) {
+            return false;
+        }
+        double lat, lon;
+        try {
+            lat = Double.parseDouble(latitude.trim());
+            lon = Double.parseDouble(longitude.trim());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if(!(lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180)) {
+            return false;
+        }
+        Station station = new Station(id.trim(), (name == null) ? null : name.trim(),
+                                      (state == null || state.trim().isEmpty()) ? null : state.trim().toUpperCase(Locale.ROOT), lat, lon);
+        synchronized(this) {
+            if(!station.sameAs(mStations.get(station.getId()))) {
+                put(station);
+                mUpdated++;
+            }
+        }
+        return true;
+    }
+
+    private void put(Station station) {
+        Station previous = mStations.put(station.getId(), station);
+        if(previous != null) {
+            mCells.get(cellOf(previous.getLatitude(), previous.getLongitude())).remove(previous);
+        }
+        Integer cell = cellOf(station.getLatitude(), station.getLongitude());
+        List<Station> stations = mCells.get(cell);
+        if(stations == null) {
+            stations = new ArrayList<Station>(4);
+            mCells.put(cell, stations);
+        }
+        stations.add(station);
+    }
+
+    //Returns the stations which match every criterion of the selection, ordered by id
+    public synchronized List<Station> select(Selection selection) {
+        Collection<Station> candidates;
+        if(selection.getBox() != null) {
+            double[] box = selection.getBox();
+            candidates = inCells(box[0], box[1], box[2], box[3]);
+        } else if(selection.getRadius() != null) {
+            double[] radius = selection.getRadius();
+            double[] box = boxAround(radius[0], radius[1], radius[2]);
+            candidates = inCells(box[0], box[1], box[2], box[3]);
+        } else {
+            candidates = mStations.values();
+        }
+
+        List<Station> selected = new ArrayList<Station>();
+        for(Station station : candidates) {
+            if(selection.getBox() != null && !inBox(station, selection.getBox())) {
+                continue;
+            }
+            if(selection.getRadius() != null && distanceKm(station.getLatitude(), station.getLongitude(),
+                                                           selection.getRadius()[0], selection.getRadius()[1]) > selection.getRadius()[2]) {
+                continue;
+            }
+            if(selection.getStates() != null && !selection.getStates().contains(station.getState())) {
+                continue;
+            }
+            selected.add(station);
+        }
+        Collections.sort(selected, new Comparator<Station>() {
+            public int compare(Station a, Station b) {
+                return a.getId().compareTo(b.getId());
+            }
+        });
+        return selected;
+    }
+
+    //The stations in every cell which overlaps the box, the box itself is not checked
+    private List<Station> inCells(double minLat, double minLon, double maxLat, double maxLon) {
+        List<Station> stations = new ArrayList<Station>();
+        int firstRow = rowOf(minLat), lastRow = rowOf(maxLat);
+        int firstColumn = columnOf(minLon), lastColumn = columnOf(maxLon);
+        //a box across the antimeridian wraps around to the first column
+        int columns = (minLon <= maxLon) ? lastColumn - firstColumn + 1 : LONGITUDE_CELLS - firstColumn + lastColumn + 1;
+        columns = Math.min(columns, LONGITUDE_CELLS);
+        for(int row = firstRow; row <= lastRow; row++) {
+            for(int i = 0; i < columns; i++) {
+                List<Station> cell = mCells.get(row * LONGITUDE_CELLS + (firstColumn + i) % LONGITUDE_CELLS);
+                if(cell != null) {
+                    stations.addAll(cell);
+                }
+            }
+        }
+        return stations;
+    }
+
+    private static boolean inBox(Station station, double[] box) {
+        double lat = station.getLatitude(), lon = station.getLongitude();
+        if(lat < box[0] || lat > box[2]) {
+            return false;
+        }
+        return (box[1] <= box[3]) ? (lon >= box[1] && lon <= box[3]) : (lon >= box[1] || lon <= box[3]);
+    }
+
+    //The bounding box of a circle, {minLatitude, minLongitude, maxLatitude, maxLongitude}, every longitude near a pole
+    private static double[] boxAround(double lat, double lon, double km) {
+        double dLat = Math.toDegrees(km / EARTH_RADIUS_KM);
+        double minLat = lat - dLat, maxLat = lat + dLat;
+        if(minLat <= -90 || maxLat >= 90) {
+            return new double[] {Math.max(-90, minLat), -180, Math.min(90, maxLat), 180};
+        }
+        double dLon = Math.toDegrees(Math.asin(Math.min(1, Math.sin(km / EARTH_RADIUS_KM) / Math.cos(Math.toRadians(lat)))));
+        if(km / EARTH_RADIUS_KM >= Math.PI / 2 || dLon >= 180) {
+            return new double[] {minLat, -180, maxLat, 180};
+        }
+        return new double[] {minLat, wrap(lon - dLon), maxLat, wrap(lon + dLon)};
+    }
+
+    private static double wrap(double lon) {
+        return (lon < -180) ? lon + 360 : (lon > 180) ? lon - 360 : lon;
+    }
+
+    //Great circle distance (haversine)
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                   Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static int rowOf(double lat) {
+        return Math.min(LATITUDE_CELLS - 1, Math.max(0, (int)Math.floor((lat + 90) * CELLS_PER_DEGREE)));
+    }
+
+    private static int columnOf(double lon) {
+        return Math.min(LONGITUDE_CELLS - 1, Math.max(0, (int)Math.floor((lon + 180) * CELLS_PER_DEGREE)));
+    }
+
+    private static int cellOf(double lat, double lon) {
+        return rowOf(lat) * LONGITUDE_CELLS + columnOf(lon);
+    }
+
+    /* Parses a bounding box, "minLatitude,minLongitude,maxLatitude,maxLongitude" in degrees
+    |  Throws IllegalArgumentException if it is not one
+    |*/
+    public static double[] parseBox(String value) {
+        double[] box = parseNumbers(value, 4);
+        if(box[0] < -90 || box[2] > 90 || box[0] > box[2] || box[1] < -180 || box[1] > 180 || box[3] < -180 || box[3] > 180) {
+            throw new IllegalArgumentException("Invalid bounding box (" + value + ")");
+        }
+        return box;
+    }
+
+    /* Parses a radius, "latitude,longitude,km"
+    |  Throws IllegalArgumentException if it is not one
+    |*/
+    public static double[] parseRadius(String value) {
+        double[] radius = parseNumbers(value, 3);
+        if(radius[0] < -90 || radius[0] > 90 || radius[1] < -180 || radius[1] > 180 || radius[2] < 0) {
+            throw new IllegalArgumentException("Invalid radius (" + value + ")");
+        }
+        return radius;
+    }
+
+    //Parses a comma separated list of states (eg. "AK,WA"), in upper case
+    public static Set<String> parseStates(String value) {
+        Set<String> states = new HashSet<String>();
+        for(String state : value.split(",")) {
+            if(!state.trim().isEmpty()) {
+                states.add(state.trim().toUpperCase(Locale.ROOT));
+            }
+        }
+        if(states.isEmpty()) {
+            throw new IllegalArgumentException("No states in (" + value + ")");
+        }
+        return states;
+    }
+
+    private static double[] parseNumbers(String value, int count) {
+        String[] fields = value.split(",");
+        if(fields.length != count) {
+            throw new IllegalArgumentException("Expected " + count + " comma separated numbers (" + value + ")");
+        }
+        double[] numbers = new double[count];
+        for(int i = 0; i < count; i++) {
+            numbers[i] = Double.parseDouble(fields[i].trim());
+        }
+        return numbers;
+    }
+
+    //Writes the catalog if anything was added or changed, replacing the file in one step
+    public synchronized void save() throws IOException {
+        if(mUpdated == 0) {
+            return;
+        }
+        File directory = mFile.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+        File temp = new File(directory, mFile.getName() + ".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8));
+        try {
+            out.write(HEADER + "\n");
+            for(Station station : new TreeMap<String, Station>(mStations).values()) {
+                out.write(ResponseCache.escape(station.getId()));
+                out.write('\t');
+                out.write(Double.toString(station.getLatitude()));
+                out.write('\t');
+                out.write(Double.toString(station.getLongitude()));
+                out.write('\t');
+                out.write(ResponseCache.escape(station.getState()));
+                out.write('\t');
+                out.write(ResponseCache.escape(station.getName()));
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mUpdated = 0;
+    }
+
+    private void read() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), StandardCharsets.UTF_8));
+        try {
+            String line = in.readLine();
+            if(!HEADER.equals(line)) {
+                throw new IOException("Unrecognised station catalog " + mFile);
+            }
+            while((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if(fields.length != 5) {
+                    throw new IOException("Malformed line in station catalog " + mFile);
+                }
+                put(new Station(ResponseCache.unescape(fields[0]), ResponseCache.unescape(fields[4]), ResponseCache.unescape(fields[3]),
+                                Double.parseDouble(fields[1]), Double.parseDouble(fields[2])));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed line in station catalog " + mFile);
+        } finally {
+            in.close();
+        }
+    }
+
+    /* Lists the stations of a catalog, or those of a selection:
+    |      StationCatalog <catalog> [-bbox MINLAT,MINLON,MAXLAT,MAXLON] [-radius LAT,LON,KM] [-state XX{,XX}]
+    |*/
+    public static void main(String[] args) {
+        if(args.length < 1 || args.length % 2 != 1) {
+            System.out.println("usage: StationCatalog <catalog> [" + NOAAQuery.ARG_BBOX + " MINLAT,MINLON,MAXLAT,MAXLON] [" +
+                               NOAAQuery.ARG_RADIUS + " LAT,LON,KM] [" + NOAAQuery.ARG_STATE + " XX{,XX}]");
+            return;
+        }
+        try {
+            Selection selection = new Selection();
+            for(int i = 1; i + 1 < args.length; i += 2) {
+                if(NOAAQuery.ARG_BBOX.equalsIgnoreCase(args[i])) {
+                    selection.setBox(parseBox(args[i + 1]));
+                } else if(NOAAQuery.ARG_RADIUS.equalsIgnoreCase(args[i])) {
+                    selection.setRadius(parseRadius(args[i + 1]));
+                } else if(NOAAQuery.ARG_STATE.equalsIgnoreCase(args[i])) {
+                    selection.setStates(parseStates(args[i + 1]));
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            for(Station station : load(new File(args[0])).select(selection)) {
+                System.out.println(station.toString());
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] " + e.toString());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package NOAAsoap;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+
+    Merges per-station output files (.dat or .bin) into one month x station matrix (-matrix), one row per month and one
+    column per station, in CSV or in a binary row-major format.
+
+    The files are merged k ways on the month key: every file is read as a stream, only its current row is held, and a
+    priority queue of the streams yields each month's values in order. Memory is bounded by the number of stations (one
+    reader and one value per station), not by the length of the series, so the whole NOAA station set can be merged.
+    Every month from the first to the last month of any station is written, a month a station has no value for is null:
+    an empty field in CSV, NaN in the binary matrix.
+
+    CSV matrix:
+        month,STATION_1,STATION_2,...
+        yyyy-MM,VALUE,,VALUE,...
+    A value read from a .dat file is copied as it was written there, a value read from a .bin file is written with
+    three decimals (NOAA's precision, see VALUE_FORMAT), so the matrix reads like the files it was merged from.
+
+    Binary matrix (little endian, see Reader):
+        "NOAM"                      magic
+        int     version             1
+        int     stationCount
+        int     rowCount
+        int     firstMonth          NOAAXML month key of the first row, rows are consecutive months
+        int     valueBytes          8 (double)
+        int     dataOffset
+        string  station * stationCount      (unsigned short length, then UTF-8 bytes)
+        padding to dataOffset (8 bytes)
+        double  value * stationCount, for every row
+
+    Each station's file is opened at once, a run over more stations than the limit on open files needs the limit raised.
+
+**/
+public class StationMatrix {
+    public static final int MAGIC = 0x4D414F4E; //"NOAM" read as a little endian int
+    public static final int VERSION = 1;
+    public static final String BIN_SUFFIX = ".bin";
+    public static final String CSV_SUFFIX = ".dat";
+
+    private static final int FIXED_HEADER_BYTES = 28;
+    private static final int READ_BUFFER = 4096;
+    private static final int WRITE_BUFFER = 1 << 16;
+    private static final String VALUE_FORMAT = "%.3f";
+
+    /* Writes the matrix of the given station files to output, binary if its name ends in .bin, CSV otherwise
+    |  column is the value column of each file to take, 0 for the first (the values after the timestamp of a .dat row,
+    |  or the columns of a .bin file). A station's column is named after its file. Returns the number of rows written.
+    |*/
+    public static int write(File output, List<File> files, int column) throws IOException {
+        List<Cursor> cursors = new ArrayList<Cursor>(files.size());
+        try {
+            for(File file : files) {
+                String name = file.getName();
+                Cursor cursor = name.endsWith(BIN_SUFFIX) ? new BinCursor(file, column) : new CsvCursor(file, column);
+                cursors.add(cursor);
+            }
+            Collections.sort(cursors, (a, b) -> a.mStation.compareTo(b.mStation));
+            String[] stations = new String[cursors.size()];
+            for(int i = 0; i < stations.length; i++) {
+                cursors.get(i).mIndex = i;
+                stations[i] = cursors.get(i).mStation;
+            }
+            RowSink sink = output.getName().endsWith(BIN_SUFFIX) ? new BinSink(output, stations) : new CsvSink(output, stations);
+            try {
+                return merge(cursors, sink);
+            } finally {
+                sink.close();
+            }
+        } finally {
+            for(Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static int merge(List<Cursor> cursors, RowSink sink) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Math.max(1, cursors.size()),
+                    (a, b) -> (a.mMonth != b.mMonth) ? Integer.compare(a.mMonth, b.mMonth) : Integer.compare(a.mIndex, b.mIndex));
+        for(Cursor cursor : cursors) {
+            if(cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        double[] row = new double[cursors.size()];
+        String[] text = new String[cursors.size()];
+        Arrays.fill(row, Double.NaN);
+        int rows = 0;
+        int month = queue.isEmpty() ? -1 : queue.peek().mMonth;
+        while(!queue.isEmpty()) {
+            int next = queue.peek().mMonth;
+            //months which no station has a value for are still rows of the matrix
+            for(; month < next; month++) {
+                sink.row(month, row, text);
+                rows++;
+            }
+            while(!queue.isEmpty() && queue.peek().mMonth == month) {
+                Cursor cursor = queue.poll();
+                if(Double.isNaN(row[cursor.mIndex])) {
+                    row[cursor.mIndex] = cursor.mValue;
+                    text[cursor.mIndex] = cursor.mText;
+                }
+                //a row which is not later than the one before it would break the order of the merge, it is left out
+                boolean more;
+                while((more = cursor.advance()) && cursor.mMonth <= month) {
+                    NOAAQuery.printDebug(() -> "Row out of order in " + cursor.mFile + " left out of the matrix");
+                }
+                if(more) {
+                    queue.add(cursor);
+                }
+            }
+            sink.row(month, row, text);
+            rows++;
+            Arrays.fill(row, Double.NaN);
+            Arrays.fill(text, null);
+            month++;
+        }
+        return rows;
+    }
+
+    //A station's file, read one row at a time
+    private static abstract class Cursor {
+        protected final File mFile;
+        protected final String mStation;
+        protected final int mColumn;
+        protected int mIndex;
+        protected int mMonth;
+        protected double mValue;
+        //the value as the file holds it, null if it is not text (or is missing)
+        protected String mText;
+
+        protected Cursor(File file, int column) {
+            mFile = file;
+            String name = file.getName();
+            int extension = name.lastIndexOf('.');
+            mStation = (extension > 0) ? name.substring(0, extension) : name;
+            mColumn = column;
+        }
+
+        //Moves to the next row with a readable month, false at the end of the file
+        abstract boolean advance() throws IOException;
+
+        abstract void close();
+    }
+
+    //A CSV output file, "timeStamp, value, value, ..." per row
+    private static class CsvCursor extends Cursor {
+        private BufferedReader mIn;
+
+        CsvCursor(File file, int column) throws IOException {
+            super(file, column);
+            mIn = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), READ_BUFFER);
+        }
+
+        boolean advance() throws IOException {
+            for(String line = mIn.readLine(); line != null; line = mIn.readLine()) {
+                int separator = line.indexOf(',');
+                if(separator < 0) {
+                    continue;
+                }
+                mMonth = NOAAXML.monthKeyOf(line.substring(0, separator));
+                if(mMonth < 0) {
+                    continue;
+                }
+                for(int i = 0; i < mColumn && separator >= 0; i++) {
+                    separator = line.indexOf(',', separator + 1);
+                }
+                mValue = Double.NaN;
+                mText = null;
+                if(separator >= 0) {
+                    int end = line.indexOf(',', separator + 1);
+                    String text = line.substring(separator + 1, (end < 0) ? line.length() : end).trim();
+                    mValue = SeriesBuilder.parseValue(text);
+                    if(!Double.isNaN(mValue)) {
+                        mText = text;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        void close() {
+            try {
+                mIn.close();
+            } catch (IOException e) {
+                NOAAQuery.printDebug(() -> "Could not close " + mFile + ": " + e.toString());
+            }
+        }
+    }
+
+    //A binary output file, read from the mapped file row by row
+    private static class BinCursor extends Cursor {
+        private BinarySeries mSeries;
+        private int mRow = -1;
+
+        BinCursor(File file, int column) throws IOException {
+            super(file, column);
+            mSeries = BinarySeries.open(file);
+            if(column >= mSeries.getColumns().length) {
+                throw new IOException(file + " has no column " + column);
+            }
+        }
+
+        boolean advance() {
+            if(++mRow >= mSeries.getRowCount()) {
+                return false;
+            }
+            mMonth = mSeries.getMonth(mRow);
+            mValue = mSeries.getValue(mColumn, mRow);
+            return true;
+        }
+
+        void close() {
+            mSeries = null;
+        }
+    }
+
+    private interface RowSink {
+        //text holds each value as its file had it, or null, see Cursor.mText
+        public void row(int month, double[] values, String[] text) throws IOException;
+        public void close() throws IOException;
+    }
+
+    private static class CsvSink implements RowSink {
+        private Writer mOut;
+        private StringBuilder mRow = new StringBuilder(256);
+
+        CsvSink(File file, String[] stations) throws IOException {
+            mOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), WRITE_BUFFER);
+            mOut.write("month");
+            for(String station : stations) {
+                mOut.write(',');
+                mOut.write(station);
+            }
+            mOut.write('\n');
+        }
+
+        public void row(int month, double[] values, String[] text) throws IOException {
+            mRow.setLength(0);
+            mRow.append(NOAAXML.monthKeyYear(month)).append('-');
+            int m = NOAAXML.monthKeyMonth(month);
+            if(m < 10) {
+                mRow.append('0');
+            }
+            mRow.append(m);
+            for(int i = 0; i < values.length; i++) {
+                mRow.append(',');
+                if(text[i] != null) {
+                    mRow.append(text[i]);
+                } else if(!Double.isNaN(values[i])) {
+                    mRow.append(String.format(Locale.ROOT, VALUE_FORMAT, values[i]));
+                }
+            }
+            mRow.append('\n');
+            mOut.append(mRow);
+        }
+
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+    /* Rows are written as they are merged, the row count and first month are filled into the header at the end
+    |*/
+    private static class BinSink implements RowSink {
+        private RandomAccessFile mFile;
+        private FileChannel mChannel;
+        private ByteBuffer mBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        private int mRows = 0, mFirstMonth = -1;
+
+        BinSink(File file, String[] stations) throws IOException {
+            mFile = new RandomAccessFile(file, "rw");
+            mFile.setLength(0);
+            mChannel = mFile.getChannel();
+
+            byte[][] names = new byte[stations.length][];
+            int headerBytes = FIXED_HEADER_BYTES;
+            for(int i = 0; i < stations.length; i++) {
+                names[i] = stations[i].getBytes(StandardCharsets.UTF_8);
+                headerBytes += 2 + names[i].length;
+            }
+            int dataOffset = (headerBytes + 7) & ~7;
+            ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(stations.length).putInt(0).putInt(-1).putInt(8).putInt(dataOffset);
+            for(byte[] name : names) {
+                header.putShort((short)name.length).put(name);
+            }
+            header.position(0);
+            writeFully(header, -1);
+        }
+
+        public void row(int month, double[] values, String[] text) throws IOException {
+            if(mFirstMonth < 0) {
+                mFirstMonth = month;
+            }
+            for(double value : values) {
+                if(mBuffer.remaining() < 8) {
+                    flush();
+                }
+                mBuffer.putDouble(value);
+            }
+            mRows++;
+        }
+
+        private void flush() throws IOException {
+            mBuffer.flip();
+            writeFully(mBuffer, -1);
+            mBuffer.clear();
+        }
+
+        private void writeFully(ByteBuffer buffer, long position) throws IOException {
+            while(buffer.hasRemaining()) {
+                if(position < 0) {
+                    mChannel.write(buffer);
+                } else {
+                    position += mChannel.write(buffer, position);
+                }
+            }
+        }
+
+        public void close() throws IOException {
+            try {
+                flush();
+                ByteBuffer counts = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                counts.putInt(mRows).putInt(mFirstMonth);
+                counts.position(0);
+                writeFully(counts, 12);
+            } finally {
+                mFile.close();
+            }
+        }
+    }
+
+    //A binary matrix, mapped into memory (so at most 2GB of it)
+    public static class Reader {
+        private ByteBuffer mBuffer;
+        private String[] mStations;
+        private int mRowCount, mFirstMonth, mDataOffset;
+
+        private Reader(ByteBuffer buffer) throws IOException {
+            mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if(mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION) {
+                throw new IOException("Not a NOAAQuery station matrix (version " + VERSION + ")");
+            }
+            mStations = new String[mBuffer.getInt(8)];
+            mRowCount = mBuffer.getInt(12);
+            mFirstMonth = mBuffer.getInt(16);
+            mDataOffset = mBuffer.getInt(24);
+            mBuffer.position(FIXED_HEADER_BYTES);
+            for(int i = 0; i < mStations.length; i++) {
+                byte[] name = new byte[mBuffer.getShort() & 0xFFFF];
+                mBuffer.get(name);
+                mStations[i] = new String(name, StandardCharsets.UTF_8);
+            }
+        }
+
+        public static Reader open(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return new Reader(mapped);
+            } finally {
+                raf.close();
+            }
+        }
+
+        public String[] getStations() {
+            return mStations.clone();
+        }
+        public int getRowCount() {
+            return mRowCount;
+        }
+        //The month key of the first row, -1 for an empty matrix
+        public int getFirstMonth() {
+            return mFirstMonth;
+        }
+
+        //NaN where the station has no value for the month
+        public double getValue(int row, int station) {
+            return mBuffer.getDouble(mDataOffset + 8 * (row * mStations.length + station));
+        }
+    }
+
+    //The station files of a directory (.dat and .bin), or the file itself
+    private static void addFiles(File file, List<File> files) {
+        if(!file.isDirectory()) {
+            files.add(file);
+            return;
+        }
+        File[] children = file.listFiles();
+        if(children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for(File child : children) {
+            String name = child.getName();
+            if(child.isFile() && (name.endsWith(CSV_SUFFIX) || name.endsWith(BIN_SUFFIX))) {
+                files.add(child);
+            }
+        }
+    }
+
+    /* Merges station files into a matrix outside of a run:
+    |      java NOAAsoap.StationMatrix <matrix.csv|matrix.bin> [-column N] <file|directory> ...
+    |*/
+    public static void main(String[] args) {
+        if(args.length < 2) {
+            System.out.println("usage: StationMatrix <matrix.csv|matrix.bin> [-column N] <file|directory> ...");
+            return;
+        }
+        int column = 0;
+        List<File> files = new ArrayList<File>();
+        for(int i = 1; i < args.length; i++) {
+            if("-column".equals(args[i]) && i + 1 < args.length) {
+                try {
+                    column = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("[ERROR] Expected a column number (" + args[i] + ")");
+                    return;
+                }
+            } else {
+                addFiles(new File(args[i]), files);
+            }
+        }
+        try {
+            int rows = write(new File(args[0]), files, column);
+            System.out.println(files.size() + " stations, " + rows + " months written to " + args[0]);
+        } catch (IOException e) {
+            System.err.println("[ERROR] " + e.toString());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package NOAAsoap;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+
+    In-memory monthly series of a single station, held in primitive arrays.
+    Each row is one month (a NOAAXML month key, year * 12 + month - 1) with one double per datum column and the inferred flag:
+
+        months      int[]       packed month keys
+        values      double[][]  values[column][row], NaN when the response had no value
+        inferred    BitSet      set for rows whose values were inferred
+
+    Rows are kept in the order they are added, the arrays grow by doubling and are never boxed.
+    A series is not thread safe.
+
+**/
+public class StationSeries {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private String mStationId, mStationName, mState;
+    private double mLatitude = Double.NaN, mLongitude = Double.NaN;
+
+    private String[] mColumns;
+    private int[] mMonths;
+    private double[][] mValues;
+    private BitSet mInferred = new BitSet();
+    private int mSize = 0;
+
+    public StationSeries(String[] columns) {
+        this(columns, INITIAL_CAPACITY);
+    }
+
+    public StationSeries(String[] columns, int capacity) {
+        mColumns = columns.clone();
+        capacity = Math.max(capacity, 1);
+        mMonths = new int[capacity];
+        mValues = new double[columns.length][capacity];
+    }
+
+    public String getStationId() {
+        return mStationId;
+    }
+    public void setStationId(String stationId) {
+        mStationId = stationId;
+    }
+
+    public String getStationName() {
+        return mStationName;
+    }
+    public void setStationName(String stationName) {
+        mStationName = stationName;
+    }
+
+    public String getState() {
+        return mState;
+    }
+    public void setState(String state) {
+        mState = state;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+    public void setLatitude(double latitude) {
+        mLatitude = latitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+    public void setLongitude(double longitude) {
+        mLongitude = longitude;
+    }
+
+    public String[] getColumns() {
+        return mColumns.clone();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    //Appends a row for the given month with every value missing, returns its index
+    public int addRow(int month) {
+        if(mSize == mMonths.length) {
+            int capacity = mSize * 2;
+            mMonths = Arrays.copyOf(mMonths, capacity);
+            for(int i = 0; i < mValues.length; i++) {
+                mValues[i] = Arrays.copyOf(mValues[i], capacity);
+            }
+        }
+        mMonths[mSize] = month;
+        for(int i = 0; i < mValues.length; i++) {
+            mValues[i][mSize] = Double.NaN;
+        }
+        mInferred.clear(mSize);
+        return mSize++;
+    }
+
+    public int getMonth(int row) {
+        return mMonths[row];
+    }
+
+    public double getValue(int column, int row) {
+        return mValues[column][row];
+    }
+    public void setValue(int column, int row, double value) {
+        mValues[column][row] = value;
+    }
+
+    public boolean isInferred(int row) {
+        return mInferred.get(row);
+    }
+    public void setInferred(int row, boolean inferred) {
+        mInferred.set(row, inferred);
+    }
+
+    /* The backing arrays, only the first size() entries are rows
+    |  They are replaced when the series grows, so they must not be kept across calls to addRow()
+    |*/
+    public int[] monthArray() {
+        return mMonths;
+    }
+    public double[] valueArray(int column) {
+        return mValues[column];
+    }
+
+    @Override
+    public String toString() {
+        return "StationSeries, station:" + mStationId + ", columns:" + String.join(",", mColumns) + ", rows:" + mSize;
+    }
+}
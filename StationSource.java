@@ -0,0 +1,15 @@
+package NOAAsoap;
+import java.io.IOException;
+
+/**
+
+    A stream of NOAA station ids, read from an input list one id at a time, so that a list never has to fit in memory and
+    the first station can be queried as soon as it has been read. Used by a single thread.
+
+**/
+public interface StationSource {
+    //Returns the next station id, or null once the input is exhausted
+    public String next() throws IOException;
+
+    public void close() throws IOException;
+}
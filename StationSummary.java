@@ -0,0 +1,301 @@
+package NOAAsoap;
+
+/**
+
+    Summary statistics of a station, gathered in one pass while its response is parsed (see SummaryRecorder):
+
+        columns     RunningStatistics of every value column written (mean, standard deviation, trend per decade)
+        extremes    the greatest highest and the least lowest element, and the month of each
+        inferred    the number of months whose values were inferred
+        coverage    the months from the first to the last month of the response, and how many of them are missing
+
+    Items are expected in ascending month order, as NOAA returns them (and as chunks are merged); an item which is not
+    later than the one before it still adds its values, but does not count as a month of its own.
+
+    Summaries combine (see combine()), the summary of all stations of a run is the combination of every station's summary.
+
+**/
+public class StationSummary implements ResponseHandler {
+    private String mStationId, mStationName, mState, mUnit;
+    private String[] mColumns;
+    private RunningStatistics[] mStatistics;
+    private double mHighest = Double.NaN, mLowest = Double.NaN;
+    private int mHighestMonth = -1, mLowestMonth = -1;
+    private String mHighestStation, mLowestStation;
+    private int mFirstMonth = -1, mLastMonth = -1;
+    private long mMonths = 0, mMissing = 0, mInferred = 0;
+    private int mStations = 0;
+    private boolean mFault = false, mComplete = false;
+
+    //the item being read
+    private int mItemMonth;
+    private double[] mItemValues;
+    private double mItemHighest, mItemLowest;
+    private boolean mItemInferred;
+
+    //columns as written to the output, the inferred element is counted rather than summarized
+    public StationSummary(String[] columns) {
+        int count = 0;
+        for(String column : columns) {
+            if(!NOAAXML.ELEM_INFERRED.equals(column)) {
+                count++;
+            }
+        }
+        mColumns = new String[count];
+        mStatistics = new RunningStatistics[count];
+        count = 0;
+        for(String column : columns) {
+            if(!NOAAXML.ELEM_INFERRED.equals(column)) {
+                mStatistics[count] = new RunningStatistics();
+                mColumns[count++] = column;
+            }
+        }
+        mItemValues = new double[mColumns.length];
+    }
+
+    private StationSummary(StationSummary other) {
+        mStationId = other.mStationId;
+        mStationName = other.mStationName;
+        mState = other.mState;
+        mUnit = other.mUnit;
+        mColumns = other.mColumns;
+        mStatistics = new RunningStatistics[other.mStatistics.length];
+        for(int i = 0; i < mStatistics.length; i++) {
+            mStatistics[i] = new RunningStatistics(other.mStatistics[i]);
+        }
+        mHighest = other.mHighest;
+        mLowest = other.mLowest;
+        mHighestMonth = other.mHighestMonth;
+        mLowestMonth = other.mLowestMonth;
+        mHighestStation = other.mHighestStation;
+        mLowestStation = other.mLowestStation;
+        mFirstMonth = other.mFirstMonth;
+        mLastMonth = other.mLastMonth;
+        mMonths = other.mMonths;
+        mMissing = other.mMissing;
+        mInferred = other.mInferred;
+        mStations = other.mStations;
+        mFault = other.mFault;
+        mComplete = other.mComplete;
+    }
+
+    public void startResponse() {
+    }
+
+    public void metadata(String tagName, String value) {
+        if(NOAAXML.ELEM_STATION_ID.equals(tagName)) {
+            mStationId = value;
+            mHighestStation = value;
+            mLowestStation = value;
+        } else if(NOAAXML.ELEM_STATION_NAME.equals(tagName)) {
+            mStationName = value;
+        } else if(NOAAXML.ELEM_STATE.equals(tagName)) {
+            mState = value;
+        } else if(NOAAXML.ELEM_UNIT.equals(tagName)) {
+            mUnit = value;
+        }
+    }
+
+    public void startItem() {
+        mItemMonth = -1;
+        mItemHighest = Double.NaN;
+        mItemLowest = Double.NaN;
+        mItemInferred = false;
+        for(int i = 0; i < mItemValues.length; i++) {
+            mItemValues[i] = Double.NaN;
+        }
+    }
+
+    public void itemValue(String tagName, String value) {
+        if(NOAAXML.ELEM_TIME_STAMP.equals(tagName)) {
+            mItemMonth = NOAAXML.monthKeyOf(value);
+            return;
+        } else if(NOAAXML.ELEM_INFERRED.equals(tagName)) {
+            mItemInferred = SeriesBuilder.parseValue(value) > 0;
+            return;
+        } else if(NOAAXML.ELEM_HIGHEST.equals(tagName)) {
+            mItemHighest = SeriesBuilder.parseValue(value);
+        } else if(NOAAXML.ELEM_LOWEST.equals(tagName)) {
+            mItemLowest = SeriesBuilder.parseValue(value);
+        }
+        //highest and lowest may be written as columns as well
+        for(int i = 0; i < mColumns.length; i++) {
+            if(mColumns[i].equals(tagName)) {
+                mItemValues[i] = SeriesBuilder.parseValue(value);
+                break;
+            }
+        }
+    }
+
+    public void endItem() {
+        if(mItemMonth < 0) {
+            NOAAQuery.printDebug("Item without a readable timestamp left out of station summary");
+            return;
+        }
+        for(int i = 0; i < mItemValues.length; i++) {
+            mStatistics[i].add(mItemMonth, mItemValues[i]);
+        }
+        if(mItemHighest > mHighest || (Double.isNaN(mHighest) && !Double.isNaN(mItemHighest))) {
+            mHighest = mItemHighest;
+            mHighestMonth = mItemMonth;
+        }
+        if(mItemLowest < mLowest || (Double.isNaN(mLowest) && !Double.isNaN(mItemLowest))) {
+            mLowest = mItemLowest;
+            mLowestMonth = mItemMonth;
+        }
+        if(mLastMonth < 0) {
+            mFirstMonth = mItemMonth;
+        } else if(mItemMonth <= mLastMonth) {
+            return;
+        } else {
+            mMissing += mItemMonth - mLastMonth - 1;
+        }
+        mLastMonth = mItemMonth;
+        mMonths++;
+        if(mItemInferred) {
+            mInferred++;
+        }
+    }
+
+    public void endResponse() {
+        mComplete = true;
+        mStations = 1;
+    }
+
+    public void fault(String faultString, String faultActor) {
+        mFault = true;
+    }
+
+    public boolean hasFault() {
+        return mFault;
+    }
+
+    //True once the end of the response element has been read
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    /* The combination of two summaries (of the same columns), neither is changed
+    |  Counts are summed and extremes kept, the statistics of each column combine as though every value had been added to one
+    |  summary. The months of the combination are the sums of the stations' months, not a span of their own.
+    |*/
+    public static StationSummary combine(StationSummary a, StationSummary b) {
+        StationSummary c = new StationSummary(a);
+        c.mStationId = null;
+        c.mStationName = null;
+        c.mState = null;
+        if(c.mUnit != null && !c.mUnit.equals(b.mUnit)) {
+            c.mUnit = null;
+        }
+        for(int i = 0; i < c.mStatistics.length; i++) {
+            c.mStatistics[i].combine(b.mStatistics[i]);
+        }
+        if(precedes(b.mHighest, b.mHighestMonth, b.mHighestStation, c.mHighest, c.mHighestMonth, c.mHighestStation, true)) {
+            c.mHighest = b.mHighest;
+            c.mHighestMonth = b.mHighestMonth;
+            c.mHighestStation = b.mHighestStation;
+        }
+        if(precedes(b.mLowest, b.mLowestMonth, b.mLowestStation, c.mLowest, c.mLowestMonth, c.mLowestStation, false)) {
+            c.mLowest = b.mLowest;
+            c.mLowestMonth = b.mLowestMonth;
+            c.mLowestStation = b.mLowestStation;
+        }
+        if(c.mFirstMonth < 0 || (b.mFirstMonth >= 0 && b.mFirstMonth < c.mFirstMonth)) {
+            c.mFirstMonth = b.mFirstMonth;
+        }
+        c.mLastMonth = Math.max(c.mLastMonth, b.mLastMonth);
+        c.mMonths += b.mMonths;
+        c.mMissing += b.mMissing;
+        c.mInferred += b.mInferred;
+        c.mStations += b.mStations;
+        return c;
+    }
+
+    /* Whether extreme a is kept over extreme b, the greater (or the lesser) value, then the earlier month, then the lower station
+    |  A tie is decided the same way whatever the order summaries are combined in
+    |*/
+    private static boolean precedes(double a, int aMonth, String aStation, double b, int bMonth, String bStation, boolean greatest) {
+        if(Double.isNaN(a) || Double.isNaN(b)) {
+            return Double.isNaN(b) && !Double.isNaN(a);
+        }
+        if(a != b) {
+            return greatest ? a > b : a < b;
+        }
+        if(aMonth != bMonth) {
+            return aMonth < bMonth;
+        }
+        return aStation != null && (bStation == null || aStation.compareTo(bStation) < 0);
+    }
+
+    public String getStationId() {
+        return mStationId;
+    }
+    public String getStationName() {
+        return mStationName;
+    }
+    public String getState() {
+        return mState;
+    }
+    public String getUnit() {
+        return mUnit;
+    }
+
+    public String[] getColumns() {
+        return mColumns.clone();
+    }
+    public RunningStatistics getStatistics(int column) {
+        return mStatistics[column];
+    }
+
+    public double getHighest() {
+        return mHighest;
+    }
+    public int getHighestMonth() {
+        return mHighestMonth;
+    }
+    public String getHighestStation() {
+        return mHighestStation;
+    }
+    public double getLowest() {
+        return mLowest;
+    }
+    public int getLowestMonth() {
+        return mLowestMonth;
+    }
+    public String getLowestStation() {
+        return mLowestStation;
+    }
+
+    //Month keys of the first and last month, -1 without any months
+    public int getFirstMonth() {
+        return mFirstMonth;
+    }
+    public int getLastMonth() {
+        return mLastMonth;
+    }
+
+    public long getMonths() {
+        return mMonths;
+    }
+    public long getMissing() {
+        return mMissing;
+    }
+    public long getInferred() {
+        return mInferred;
+    }
+
+    //The share of months present between the first and the last, NaN without any months
+    public double getCoverage() {
+        return (mMonths == 0) ? Double.NaN : (double)mMonths / (mMonths + mMissing);
+    }
+
+    //The number of stations summarized, 1 for a complete station
+    public int getStations() {
+        return mStations;
+    }
+
+    @Override
+    public String toString() {
+        return "StationSummary, station:" + mStationId + ", stations:" + mStations + ", months:" + mMonths + ", missing:" + mMissing + ", inferred:" + mInferred;
+    }
+}
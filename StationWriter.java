@@ -0,0 +1,308 @@
+package NOAAsoap;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/**
+
+    ResponseHandler which writes a single station's response as it is streamed, or as handleResponse() walks a SAAJ message.
+    With a single column the output is identical to writeItemNode(). With several columns every row holds one value per column,
+    in column order, and a value missing from an item is left empty:
+        timeStamp, MSL, MHHW, MLLW
+    Rows are encoded into a BlockWriter, which writes them in large blocks, optionally from a separate writer thread.
+    The verbose console dump is collected so it can be printed in one piece.
+    With metrics set, the time spent writing rows is summed and recorded as the station's write phase when the writer is closed.
+    Binary output (see BinarySeries) is collected into a StationSeries and written once the response ends.
+    XML output (see XmlSeriesWriter) is streamed like CSV, through the same BlockWriter.
+
+**/
+public class StationWriter implements ResponseHandler {
+    private FileDescription mDesc;
+    private String[] mColumns;
+    private boolean mWriteFile;
+    private boolean mAppend = false;
+    private ExecutorService mWriterThread = null;
+    private StringBuilder mVerboseLog;
+
+    private BlockWriter mOut = null;
+    private String mTimeStamp;
+    private StringBuilder mValues = new StringBuilder(32);
+    private String[] mRowValues;
+    private SeriesBuilder mSeries = null;
+    private XmlSeriesWriter mXml = null;
+    private String mStationId = null;
+    private Metrics mMetrics = null;
+    private long mWriteNanos = 0, mRows = 0;
+
+    //verboseLog may be null if the verbose console is disabled
+    public StationWriter(FileDescription desc, String[] columns, boolean writeFile, StringBuilder verboseLog) {
+        mDesc = desc;
+        mColumns = columns;
+        mRowValues = new String[columns.length];
+        mWriteFile = writeFile;
+        mVerboseLog = verboseLog;
+        if(desc.getFormat() == FileDescription.Format.BIN) {
+            mSeries = new SeriesBuilder(columns);
+        }
+    }
+
+    //Rows are added to the end of an existing file instead of replacing it
+    public void setAppend(boolean append) {
+        mAppend = append;
+    }
+
+    //Blocks of output are written by the given thread instead of the thread which drives the handler
+    public void setWriterThread(ExecutorService writerThread) {
+        mWriterThread = writerThread;
+    }
+
+    //Rows written and the time spent writing them are recorded in metrics, which may be null
+    public void setMetrics(Metrics metrics) {
+        mMetrics = metrics;
+    }
+
+    public void startResponse() {
+        if(mWriteFile && mDesc.getFormat() != FileDescription.Format.BIN) {
+            try {
+                mOut = new BlockWriter(new File(mDesc.getDirectoryName() + mDesc.getFileName()), mAppend, mWriterThread);
+                if(mDesc.getFormat() == FileDescription.Format.XML) {
+                    mXml = new XmlSeriesWriter(mOut, mColumns);
+                }
+            } catch (IOException e) {
+                NOAAQuery.printError("[ERROR] " + e.toString());
+            }
+        }
+    }
+
+    public void metadata(String tagName, String value) {
+        if(mSeries != null) {
+            mSeries.metadata(tagName, value);
+        } else if(NOAAXML.ELEM_STATION_ID.equals(tagName)) {
+            mStationId = value;
+        }
+        if(mVerboseLog != null) {
+            appendVerbose(NOAAQuery.formatMetadata(tagName, value));
+        }
+    }
+
+    public void startItem() {
+        if(mSeries != null) {
+            mSeries.startItem();
+        }
+        mTimeStamp = null;
+        mValues.setLength(0);
+        for(int i = 0; i < mRowValues.length; i++) {
+            mRowValues[i] = null;
+        }
+    }
+
+    public void itemValue(String tagName, String value) {
+        if(mSeries != null) {
+            mSeries.itemValue(tagName, value);
+        } else if(NOAAXML.ELEM_TIME_STAMP.equals(tagName)) {
+            mTimeStamp = value;
+        } else if(mColumns.length == 1 && mXml == null) {
+            if(mColumns[0].equals(tagName)) {
+                mValues.append(", ").append(value);
+            }
+        } else {
+            for(int i = 0; i < mColumns.length; i++) {
+                if(mColumns[i].equals(tagName)) {
+                    mRowValues[i] = value;
+                    break;
+                }
+            }
+        }
+        if(mVerboseLog != null) {
+            appendVerbose(NOAAQuery.formatData(tagName, value));
+        }
+    }
+
+    public void endItem() {
+        if(mSeries != null) {
+            mSeries.endItem();
+            return;
+        }
+        //a row without a readable timestamp would break -incremental and -matrix, which read the files back
+        if(NOAAXML.monthKeyOf(mTimeStamp) < 0) {
+            NOAAQuery.printDebug("Item without a readable timestamp left out of the output file");
+            return;
+        }
+        if(mXml != null) {
+            writeXmlRow();
+            return;
+        }
+        if(mColumns.length > 1) {
+            for(String value : mRowValues) {
+                mValues.append(", ");
+                if(value != null) {
+                    mValues.append(value);
+                }
+            }
+        }
+        if(mOut != null && mDesc.getFormat() == FileDescription.Format.CSV) {
+            long start = (mMetrics != null) ? System.nanoTime() : 0;
+            try {
+                mOut.write(mTimeStamp);
+                mOut.write(mValues);
+                mOut.write('\n');
+                mRows++;
+            } catch (IOException e) {
+                NOAAQuery.printError("[ERROR] Failure when writing data to file.");
+            }
+            if(mMetrics != null) {
+                mWriteNanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    private void writeXmlRow() {
+        long start = (mMetrics != null) ? System.nanoTime() : 0;
+        try {
+            if(!mXml.isStarted()) {
+                mXml.start(mStationId);
+            }
+            mXml.row(mTimeStamp, mRowValues);
+            mRows++;
+        } catch (IOException e) {
+            NOAAQuery.printError("[ERROR] Failure when writing data to file.");
+        }
+        if(mMetrics != null) {
+            mWriteNanos += System.nanoTime() - start;
+        }
+    }
+
+    public void endResponse() {
+        if(mSeries != null && mWriteFile) {
+            long start = (mMetrics != null) ? System.nanoTime() : 0;
+            try {
+                BinarySeries.write(new File(mDesc.getDirectoryName() + mDesc.getFileName()), mSeries.getSeries(),
+                                   Arrays.asList(mColumns).contains(NOAAXML.ELEM_INFERRED), BinarySeries.VALUE_BYTES_DOUBLE);
+                mRows += mSeries.getSeries().size();
+            } catch (IOException e) {
+                NOAAQuery.printError("[ERROR] Failure when writing data to file.");
+            }
+            if(mMetrics != null) {
+                mWriteNanos += System.nanoTime() - start;
+            }
+        }
+        if(mXml != null && mOut != null) {
+            long start = (mMetrics != null) ? System.nanoTime() : 0;
+            try {
+                if(!mXml.isStarted()) {
+                    mXml.start(mStationId);
+                }
+                mXml.end();
+            } catch (IOException e) {
+                NOAAQuery.printError("[ERROR] Failure when writing data to file.");
+            }
+            if(mMetrics != null) {
+                mWriteNanos += System.nanoTime() - start;
+            }
+        }
+        close();
+    }
+
+    public void fault(String faultString, String faultActor) {
+        NOAAQuery.printFault(faultString, faultActor);
+    }
+
+    public void close() {
+        if(mOut != null) {
+            long start = (mMetrics != null) ? System.nanoTime() : 0;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                NOAAQuery.printError("[ERROR] " + e.toString());
+            }
+            mOut = null;
+            if(mMetrics != null) {
+                mWriteNanos += System.nanoTime() - start;
+            }
+        }
+        if(mMetrics != null && (mWriteNanos > 0 || mRows > 0)) {
+            mMetrics.record(Metrics.Phase.WRITE, mWriteNanos);
+            mMetrics.addRows(mRows);
+            mWriteNanos = 0;
+            mRows = 0;
+        }
+    }
+
+    /* Returns the last row of an existing CSV output file, without its line break
+    |  Returns null if the file has no rows, or if the last row was cut short (it does not end with a line break)
+    |  Only the end of the file is read
+    |*/
+    public static String lastRow(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long end = in.length();
+            if(end == 0) {
+                return null;
+            }
+            in.seek(end - 1);
+            if(in.read() != '\n') {
+                return null;
+            }
+            //skip the line break which ends the last row
+            while(end > 0) {
+                in.seek(end - 1);
+                int c = in.read();
+                if(c != '\n' && c != '\r') {
+                    break;
+                }
+                end--;
+            }
+            long start = end;
+            byte[] buffer = new byte[256];
+            while(start > 0) {
+                int length = (int)Math.min(buffer.length, start);
+                in.seek(start - length);
+                in.readFully(buffer, 0, length);
+                int i = length - 1;
+                while(i >= 0 && buffer[i] != '\n') {
+                    i--;
+                }
+                if(i >= 0) {
+                    start = start - length + i + 1;
+                    break;
+                }
+                start -= length;
+            }
+            if(start == end) {
+                return null;
+            }
+            byte[] line = new byte[(int)(end - start)];
+            in.seek(start);
+            in.readFully(line);
+            return new String(line, StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    //The timestamp of a CSV output row
+    public static String rowTimeStamp(String row) {
+        int separator = row.indexOf(", ");
+        return (separator < 0) ? row : row.substring(0, separator);
+    }
+
+    /* Whether a CSV output row has the fields of the given columns: the timestamp, then one value per column
+    |  With a single column the value is left out altogether when an item has none, so a row of just the timestamp matches too
+    |*/
+    public static boolean rowMatches(String row, String[] columns) {
+        int fields = 1;
+        for(int i = row.indexOf(", "); i >= 0; i = row.indexOf(", ", i + 2)) {
+            fields++;
+        }
+        return fields == columns.length + 1 || (columns.length == 1 && fields == 1);
+    }
+
+    private void appendVerbose(String line) {
+        if(mVerboseLog != null && line != null) {
+            mVerboseLog.append(line).append('\n');
+        }
+    }
+}
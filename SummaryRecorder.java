@@ -0,0 +1,55 @@
+package NOAAsoap;
+
+/**
+
+    ResponseHandler which passes everything on to another handler, and summarizes the station as it goes (see StationSummary).
+    The summary is added to the run's summary table once the response has been read, a faulted response is not summarized.
+
+**/
+public class SummaryRecorder implements ResponseHandler {
+    private SummaryTable mTable;
+    private StationSummary mSummary;
+    private ResponseHandler mHandler;
+
+    public SummaryRecorder(SummaryTable table, String[] columns, ResponseHandler handler) {
+        mTable = table;
+        mSummary = new StationSummary(columns);
+        mHandler = handler;
+    }
+
+    public void startResponse() {
+        mSummary.startResponse();
+        mHandler.startResponse();
+    }
+
+    public void metadata(String tagName, String value) {
+        mSummary.metadata(tagName, value);
+        mHandler.metadata(tagName, value);
+    }
+
+    public void startItem() {
+        mSummary.startItem();
+        mHandler.startItem();
+    }
+
+    public void itemValue(String tagName, String value) {
+        mSummary.itemValue(tagName, value);
+        mHandler.itemValue(tagName, value);
+    }
+
+    public void endItem() {
+        mSummary.endItem();
+        mHandler.endItem();
+    }
+
+    public void endResponse() {
+        mSummary.endResponse();
+        mTable.add(mSummary);
+        mHandler.endResponse();
+    }
+
+    public void fault(String faultString, String faultActor) {
+        mSummary.fault(faultString, faultActor);
+        mHandler.fault(faultString, faultActor);
+    }
+}
@@ -0,0 +1,124 @@
+package NOAAsoap;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+
+    The station summaries of a run (-summary), written as one CSV table once every station has been queried.
+    Worker threads add the summary of each station they finish, nothing else of a station is kept.
+
+    The table has one row per station and value column, sorted by station, followed by one ALL row per value column: the
+    combination of every station (see StationSummary.combine()), reduced in parallel. Its mean and trend are those of all
+    the stations' months pooled, its months, missing and inferred counts are totals, and its extremes name their station.
+
+        station,name,state,column,unit,first,last,months,missing,coverage,inferred,count,mean,stddev,trendPerDecade,
+        highest,highestMonth,highestStation,lowest,lowestMonth,lowestStation
+
+    Months are written yyyy-MM, the trend in the response's unit per decade, missing values are left empty.
+
+**/
+public class SummaryTable {
+    public static final String ALL_STATIONS = "ALL";
+    public static final String HEADER = "station,name,state,column,unit,first,last,months,missing,coverage,inferred,count,mean,stddev,trendPerDecade," +
+                                        "highest,highestMonth,highestStation,lowest,lowestMonth,lowestStation";
+
+    private final ConcurrentLinkedQueue<StationSummary> mSummaries = new ConcurrentLinkedQueue<StationSummary>();
+
+    //Adds the summary of a complete station, faulted or incomplete summaries are left out
+    public void add(StationSummary summary) {
+        if(summary.isComplete() && !summary.hasFault()) {
+            mSummaries.add(summary);
+        }
+    }
+
+    public int size() {
+        return mSummaries.size();
+    }
+
+    //The combination of every station, empty without any
+    public Optional<StationSummary> total() {
+        return mSummaries.parallelStream().reduce(StationSummary::combine);
+    }
+
+    public void write(File file) throws IOException {
+        List<StationSummary> summaries = new ArrayList<StationSummary>(mSummaries);
+        summaries.sort(Comparator.comparing(StationSummary::getStationId, Comparator.nullsFirst(Comparator.<String>naturalOrder())));
+        Optional<StationSummary> total = total();
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        try {
+            out.write(HEADER);
+            out.write('\n');
+            StringBuilder sb = new StringBuilder(256);
+            for(StationSummary summary : summaries) {
+                writeRows(out, sb, summary, summary.getStationId(), summary.getStationName());
+            }
+            if(total.isPresent()) {
+                writeRows(out, sb, total.get(), ALL_STATIONS, total.get().getStations() + " stations");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeRows(Writer out, StringBuilder sb, StationSummary summary, String station, String name) throws IOException {
+        String[] columns = summary.getColumns();
+        for(int i = 0; i < columns.length; i++) {
+            RunningStatistics statistics = summary.getStatistics(i);
+            sb.setLength(0);
+            sb.append(field(station)).append(',')
+              .append(field(name)).append(',')
+              .append(field(summary.getState())).append(',')
+              .append(field(columns[i])).append(',')
+              .append(field(summary.getUnit())).append(',')
+              .append(month(summary.getFirstMonth())).append(',')
+              .append(month(summary.getLastMonth())).append(',')
+              .append(summary.getMonths()).append(',')
+              .append(summary.getMissing()).append(',')
+              .append(number(summary.getCoverage())).append(',')
+              .append(summary.getInferred()).append(',')
+              .append(statistics.getCount()).append(',')
+              .append(number(statistics.getMean())).append(',')
+              .append(number(statistics.getStandardDeviation())).append(',')
+              .append(number(statistics.getTrendPerDecade())).append(',')
+              .append(number(summary.getHighest())).append(',')
+              .append(month(summary.getHighestMonth())).append(',')
+              .append(field(summary.getHighestStation())).append(',')
+              .append(number(summary.getLowest())).append(',')
+              .append(month(summary.getLowestMonth())).append(',')
+              .append(field(summary.getLowestStation())).append('\n');
+            out.append(sb);
+        }
+    }
+
+    //Quoted when it holds a separator or a quote, null is empty
+    private static String field(String value) {
+        if(value == null) {
+            return "";
+        }
+        if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    //Locale independent, empty for NaN
+    private static String number(double value) {
+        return Double.isNaN(value) ? "" : String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String month(int key) {
+        return (key < 0) ? "" : String.format("%04d-%02d", NOAAXML.monthKeyYear(key), NOAAXML.monthKeyMonth(key));
+    }
+}
@@ -0,0 +1,58 @@
+package NOAAsoap;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+
+/**
+
+    Copies every byte read from the wrapped stream to a secondary output stream, used to keep raw responses while they are parsed.
+    The secondary stream is not closed by this class.
+
+**/
+public class TeeInputStream extends FilterInputStream {
+    private OutputStream mCopy;
+
+    public TeeInputStream(InputStream in, OutputStream copy) {
+        super(in);
+        mCopy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if(b != -1) {
+            mCopy.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = super.read(buffer, offset, length);
+        if(count > 0) {
+            mCopy.write(buffer, offset, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        //skipped bytes must still reach the copy
+        byte[] buffer = new byte[(int)Math.min(n, 4096)];
+        long skipped = 0;
+        while(skipped < n) {
+            int count = read(buffer, 0, (int)Math.min(buffer.length, n - skipped));
+            if(count < 0) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,19 @@
+package NOAAsoap;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+
+    Carries encoded SOAP requests to the NOAA endpoint, implementations must be safe to share between worker threads.
+    SOAP faults arrive with an error status, their body is returned all the same so the parser can report the fault.
+
+**/
+public interface Transport {
+    //Posts the first length bytes of body and returns the (decompressed) response body, which the caller must close
+    public InputStream post(byte[] body, int length) throws IOException;
+
+    //Opens up to the given number of connections ahead of the first request, failures are not fatal
+    public void warm(int connections);
+
+    public void close();
+}
@@ -0,0 +1,61 @@
+package NOAAsoap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.util.zip.GZIPInputStream;
+
+/**
+
+    Transport over HttpURLConnection, which keeps connections alive between requests as long as each response is read to the end.
+    Connecting, and every read of the response, fail with a SocketTimeoutException (an IOException) once they exceed their timeout.
+
+**/
+public class URLConnectionTransport implements Transport {
+    private URL mEndpoint;
+    private int mConnectTimeout, mReadTimeout;
+
+    public URLConnectionTransport(URL endpoint) {
+        this(endpoint, HttpClientTransport.CONNECT_TIMEOUT, HttpClientTransport.RESPONSE_TIMEOUT);
+    }
+
+    public URLConnectionTransport(URL endpoint, Duration connectTimeout, Duration readTimeout) {
+        mEndpoint = endpoint;
+        mConnectTimeout = (int)Math.min(Integer.MAX_VALUE, connectTimeout.toMillis());
+        mReadTimeout = (int)Math.min(Integer.MAX_VALUE, readTimeout.toMillis());
+    }
+
+    public InputStream post(byte[] body, int length) throws IOException {
+        HttpURLConnection http = (HttpURLConnection) mEndpoint.openConnection();
+        http.setConnectTimeout(mConnectTimeout);
+        http.setReadTimeout(mReadTimeout);
+        http.setRequestMethod("POST");
+        http.setDoOutput(true);
+        http.setFixedLengthStreamingMode(length);
+        http.setRequestProperty("Content-Type", HttpClientTransport.CONTENT_TYPE);
+        http.setRequestProperty("SOAPAction", NOAAXML.SOAP_ACTION);
+        http.setRequestProperty("Accept-Encoding", "gzip");
+
+        OutputStream out = http.getOutputStream();
+        out.write(body, 0, length);
+        out.close();
+
+        InputStream in = (http.getResponseCode() >= 400) ? http.getErrorStream() : http.getInputStream();
+        if(in == null) {
+            throw new IOException("Server returned HTTP " + http.getResponseCode() + " without a response body");
+        }
+        if("gzip".equalsIgnoreCase(http.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    public void warm(int connections) {
+        //HttpURLConnection only pools connections which have already carried a request, there is nothing to open ahead of time
+    }
+
+    public void close() {
+    }
+}
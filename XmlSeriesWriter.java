@@ -0,0 +1,166 @@
+package NOAAsoap;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+
+    Writes a station's rows in the XML output format (-outf XML) as they are parsed, with a StAX XMLStreamWriter over a
+    BlockWriter, so the document is never held in memory: each row is encoded into the current block and the blocks go
+    to the file channel as they fill, whatever the length of the series. The document is encoded as UTF-8.
+
+        <?xml version="1.0" encoding="UTF-8"?>
+        <series stationId="9462620" columns="MSL">
+            <data>
+                <date>YYYYMMDD</date>
+                <value>N</value>
+            </data>
+            ...
+        </series>
+
+    With several columns every row holds one value element per column, named by a column attribute, in column order:
+        <value column="MHHW">N</value>
+    A value missing from an item is an empty element. A date which cannot be read is written as the response had it.
+
+    The writer is not thread safe, like the BlockWriter under it.
+
+**/
+public class XmlSeriesWriter {
+    public static final String ELEM_SERIES = "series";
+    public static final String ELEM_DATA = "data";
+    public static final String ELEM_DATE = "date";
+    public static final String ELEM_VALUE = "value";
+    public static final String ATTR_STATION_ID = "stationId";
+    public static final String ATTR_COLUMNS = "columns";
+    public static final String ATTR_COLUMN = "column";
+
+    //XMLOutputFactory is safe to share, the JDK's own implementation is used for the same reasons as in ResponseParser
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newDefaultFactory();
+    private static final String ENCODING = "UTF-8";
+    private static final int DATE_LENGTH = 8;
+    private static final int RUN_SIZE = 1024;
+
+    private XMLStreamWriter mXml;
+    private String[] mColumns;
+    private boolean mStarted = false;
+    private char[] mDate = new char[14];
+
+    public XmlSeriesWriter(BlockWriter out, String[] columns) throws IOException {
+        mColumns = columns;
+        try {
+            mXml = outputFactory.createXMLStreamWriter(new BlockOutputStream(out), ENCODING);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    //Opens the document, the station id may be null
+    public void start(String stationId) throws IOException {
+        try {
+            mXml.writeStartDocument(ENCODING, "1.0");
+            mXml.writeCharacters("\n");
+            mXml.writeStartElement(ELEM_SERIES);
+            if(stationId != null) {
+                mXml.writeAttribute(ATTR_STATION_ID, stationId);
+            }
+            mXml.writeAttribute(ATTR_COLUMNS, String.join(",", mColumns));
+            mStarted = true;
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    //values holds one value per column, null where it is missing
+    public void row(String timeStamp, String[] values) throws IOException {
+        try {
+            mXml.writeCharacters("\n\t");
+            mXml.writeStartElement(ELEM_DATA);
+            mXml.writeCharacters("\n\t\t");
+            mXml.writeStartElement(ELEM_DATE);
+            int key = NOAAXML.minuteKeyOf(timeStamp);
+            if(key != NOAAXML.INVALID_KEY) {
+                NOAAXML.formatTimeStamp(key, mDate, 0);
+                mXml.writeCharacters(mDate, 0, DATE_LENGTH);
+            } else if(timeStamp != null) {
+                mXml.writeCharacters(timeStamp);
+            }
+            mXml.writeEndElement();
+            for(int i = 0; i < values.length; i++) {
+                mXml.writeCharacters("\n\t\t");
+                if(values[i] == null) {
+                    mXml.writeEmptyElement(ELEM_VALUE);
+                } else {
+                    mXml.writeStartElement(ELEM_VALUE);
+                }
+                if(values.length > 1) {
+                    mXml.writeAttribute(ATTR_COLUMN, mColumns[i]);
+                }
+                if(values[i] != null) {
+                    mXml.writeCharacters(values[i]);
+                    mXml.writeEndElement();
+                }
+            }
+            mXml.writeCharacters("\n\t");
+            mXml.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    //Closes the document and hands what is left of it to the BlockWriter, which is not closed
+    public void end() throws IOException {
+        try {
+            mXml.writeCharacters("\n");
+            mXml.writeEndElement();
+            mXml.writeEndDocument();
+            mXml.writeCharacters("\n");
+            mXml.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /* The byte stream of the XMLStreamWriter
+    |  Given a stream, the JDK's writer encodes UTF-8 itself (which is cheaper than handing its characters to a Writer), but
+    |  writes it a byte at a time; the bytes are gathered here and put into the BlockWriter's current block in runs.
+    |*/
+    private static class BlockOutputStream extends OutputStream {
+        private BlockWriter mOut;
+        private byte[] mBuffer = new byte[RUN_SIZE];
+        private int mLength = 0;
+
+        BlockOutputStream(BlockWriter out) {
+            mOut = out;
+        }
+
+        public void write(int b) throws IOException {
+            if(mLength == mBuffer.length) {
+                flush();
+            }
+            mBuffer[mLength++] = (byte)b;
+        }
+
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            flush();
+            mOut.write(bytes, offset, length);
+        }
+
+        //hands the gathered bytes to the BlockWriter, blocks are still written only when they fill or the BlockWriter is closed
+        public void flush() throws IOException {
+            if(mLength > 0) {
+                mOut.write(mBuffer, 0, mLength);
+                mLength = 0;
+            }
+        }
+
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package NOAAsoap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+
+    Station ids from an XML document, the value of every element named NOAAid is an id, wherever it is in the document:
+
+        <data>
+            <etc>
+                <NOAAid>NOAA_ID</NOAAid>
+                <NOAAid>NOAA_ID</NOAAid>
+            </etc>
+        </data>
+
+    The document is read with a streaming (StAX) reader, one id at a time.
+
+**/
+public class XmlStationSource implements StationSource {
+    public static final String ELEM_NOAA_ID = "NOAAid";
+
+    //XMLInputFactory is safe to share once configured
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newDefaultFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        return factory;
+    }
+
+    private InputStream mIn;
+    private XMLStreamReader mReader;
+
+    public XmlStationSource(InputStream in) throws IOException {
+        mIn = in;
+        try {
+            mReader = inputFactory.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new IOException(e.toString(), e);
+        }
+    }
+
+    public String next() throws IOException {
+        try {
+            while(mReader.hasNext()) {
+                if(mReader.next() == XMLStreamConstants.START_ELEMENT && ELEM_NOAA_ID.equals(mReader.getLocalName())) {
+                    String id = mReader.getElementText().trim();
+                    if(CsvStationSource.isStationId(id)) {
+                        return id;
+                    }
+                    NOAAQuery.printDebug(() -> "Input list contained a malformed " + ELEM_NOAA_ID + " (" + id + ")");
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException(e.toString(), e);
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            mReader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e.toString(), e);
+        } finally {
+            mIn.close();
+        }
+    }
+}
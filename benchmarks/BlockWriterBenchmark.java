@@ -0,0 +1,107 @@
+package NOAAsoap;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+
+    Compares the previous CSV row writer (a concatenated String per row, getBytes(), one FileOutputStream.write() per row)
+    with BlockWriter, on the calling thread and with a writer thread.
+    Reports the time, the bytes allocated by the calling thread and the number of writes per row, after checking that
+    every writer produces the same file.
+
+    usage: BlockWriterBenchmark [rows] [directory]
+
+**/
+public class BlockWriterBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        File directory = (args.length > 1) ? new File(args[1]) : Files.createTempDirectory("BlockWriterBenchmark").toFile();
+
+        String[] timeStamps = new String[12 * 100];
+        String[] values = new String[timeStamps.length];
+        for(int i = 0; i < timeStamps.length; i++) {
+            timeStamps[i] = String.format("%04d/%02d/01 00:00", 1920 + i / 12, i % 12 + 1);
+            values[i] = String.format("%.3f", 1.5 + Math.sin(i) / 3);
+        }
+
+        File streamFile = new File(directory, "stream.dat");
+        File blockFile = new File(directory, "block.dat");
+        File threadFile = new File(directory, "thread.dat");
+        ExecutorService writerThread = Executors.newSingleThreadExecutor();
+        try {
+            for(int i = 0; i < WARMUP_ROUNDS; i++) {
+                writeStream(streamFile, rows, timeStamps, values);
+                writeBlocks(blockFile, rows, timeStamps, values, null);
+                writeBlocks(threadFile, rows, timeStamps, values, writerThread);
+            }
+            byte[] expected = Files.readAllBytes(streamFile.toPath());
+            if(!Arrays.equals(expected, Files.readAllBytes(blockFile.toPath())) || !Arrays.equals(expected, Files.readAllBytes(threadFile.toPath()))) {
+                System.err.println("[ERROR] BlockWriter output differs from the FileOutputStream output");
+                System.exit(1);
+            }
+
+            report("FileOutputStream per row", rows, streamFile, timeStamps, values, null, false);
+            report("BlockWriter", rows, blockFile, timeStamps, values, null, true);
+            report("BlockWriter + writer thread", rows, threadFile, timeStamps, values, writerThread, true);
+        } finally {
+            writerThread.shutdown();
+            streamFile.delete();
+            blockFile.delete();
+            threadFile.delete();
+        }
+    }
+
+    private static void report(String name, int rows, File file, String[] timeStamps, String[] values,
+                                ExecutorService writerThread, boolean blocks) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long writes = blocks ? writeBlocks(file, rows, timeStamps, values, writerThread) : writeStream(file, rows, timeStamps, values);
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        System.out.printf("%-30s %10.1f ns/row %10.1f B/row %10.4f writes/row%n", name, (double)elapsed / rows, (double)allocated / rows,
+                          (double)writes / rows);
+    }
+
+    //The row writer as it was before BlockWriter, returns the number of writes
+    private static long writeStream(File file, int rows, String[] timeStamps, String[] values) throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for(int i = 0; i < rows; i++) {
+                String csValues = "";
+                csValues += ", " + values[i % values.length];
+                String finalOutput = timeStamps[i % timeStamps.length] + csValues + "\n";
+                out.write(finalOutput.getBytes());
+            }
+        } finally {
+            out.close();
+        }
+        return rows;
+    }
+
+    //The row writer of StationWriter, returns the number of writes
+    private static long writeBlocks(File file, int rows, String[] timeStamps, String[] values, ExecutorService writerThread) throws Exception {
+        BlockWriter out = new BlockWriter(file, false, writerThread);
+        StringBuilder csValues = new StringBuilder(32);
+        try {
+            for(int i = 0; i < rows; i++) {
+                csValues.setLength(0);
+                csValues.append(", ").append(values[i % values.length]);
+                out.write(timeStamps[i % timeStamps.length]);
+                out.write(csValues);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        return out.getBlocksWritten();
+    }
+}
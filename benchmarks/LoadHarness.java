@@ -0,0 +1,119 @@
+package NOAAsoap;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+
+    End to end load test: runs NOAAQuery against a StandInServer for a generated list of stations and reports
+    stations/sec, bytes/sec, faults and request latency percentiles (as seen by the server, from request to response sent).
+
+    Server options (see StandInServer) and -stations are read by the harness, everything after -- is passed to NOAAQuery:
+
+    usage: LoadHarness [-stations N] [-keep] [-items N] [-latency MS] [-jitter MS] [-fault-rate F] [-capacity N] [-threads N] [-- NOAAQuery ARGS]
+      eg.  LoadHarness -stations 5000 -latency 40 -jitter 80 -fault-rate 0.01 -- -parallel 32 -retries 2 -chunk-years 20
+           LoadHarness -stations 5000 -latency 40 -capacity 24 -- -adaptive -retries 3
+
+**/
+public class LoadHarness {
+    public static final String ARG_STATIONS = "-stations";
+    public static final String ARG_KEEP = "-keep";
+    private static final int DEFAULT_STATIONS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int separator = Arrays.asList(args).indexOf("--");
+        String[] harnessArgs = (separator < 0) ? args : Arrays.copyOfRange(args, 0, separator);
+        String[] queryArgs = (separator < 0) ? new String[0] : Arrays.copyOfRange(args, separator + 1, args.length);
+
+        StandInServer server = new StandInServer();
+        int stations = DEFAULT_STATIONS;
+        boolean keep = false;
+        try {
+            List<String> rest = new ArrayList<String>(Arrays.asList(server.configure(harnessArgs)));
+            int index = rest.indexOf(ARG_STATIONS);
+            if(index >= 0) {
+                stations = Integer.parseInt(rest.get(index + 1));
+                rest.remove(index);
+                rest.remove(index);
+            }
+            keep = rest.remove(ARG_KEEP);
+            if(!rest.isEmpty() || stations < 1) {
+                throw new IllegalArgumentException("unexpected arguments " + rest);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+            System.err.println("usage: LoadHarness [-stations N] [-keep] [-items N] [-latency MS] [-jitter MS] [-fault-rate F] [-capacity N] [-threads N] [-- NOAAQuery ARGS]");
+            return;
+        }
+
+        File directory = Files.createTempDirectory("LoadHarness").toFile();
+        File stationList = new File(directory, "stations.dat");
+        File output = new File(directory, "output");
+        writeStationList(stationList, stations);
+
+        List<String> query = new ArrayList<String>();
+        query.add(stationList.getPath());
+        query.add(output.getPath());
+        query.add(NOAAQuery.ARG_SUPPRESS_CONSOLE);
+        query.addAll(Arrays.asList(queryArgs));
+
+        server.start();
+        query.add(NOAAQuery.ARG_ENDPOINT);
+        query.add(server.getEndpoint());
+        long start = System.nanoTime();
+        try {
+            NOAAQuery.main(query.toArray(new String[query.size()]));
+        } finally {
+            server.stop();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        File[] written = output.listFiles();
+        System.out.println();
+        System.out.println("NOAAQuery " + String.join(" ", queryArgs));
+        System.out.printf("stations          %d (%d output files)%n", stations, (written == null) ? 0 : written.length);
+        System.out.printf("wall time         %.2f s%n", seconds);
+        System.out.printf("stations/sec      %.1f%n", stations / seconds);
+        System.out.printf("requests          %d (%d faults)%n", server.getRequests(), server.getFaults());
+        System.out.printf("bytes sent        %d (%.2f MB/s)%n", server.getBytesSent(), server.getBytesSent() / seconds / 1e6);
+        System.out.printf("latency p50       %.1f ms%n", server.latencyPercentile(50) / 1e6);
+        System.out.printf("latency p90       %.1f ms%n", server.latencyPercentile(90) / 1e6);
+        System.out.printf("latency p99       %.1f ms%n", server.latencyPercentile(99) / 1e6);
+        System.out.printf("latency max       %.1f ms%n", server.latencyPercentile(100) / 1e6);
+        if(NOAAQuery.getLimiter() != null) {
+            System.out.printf("final limit       %d%n", NOAAQuery.getLimiter().getLimit());
+        }
+
+        if(keep) {
+            System.out.println("output kept in   " + directory);
+        } else {
+            delete(directory);
+        }
+    }
+
+    private static void writeStationList(File file, int stations) throws IOException {
+        Writer out = new FileWriter(file);
+        try {
+            for(int i = 0; i < stations; i++) {
+                out.write((9400000 + i) + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,60 @@
+package NOAAsoap;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import javax.xml.soap.SOAPMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+
+    Building a request: the SAAJ message of prepareMessage(), with and without serializing it, and RequestEncoder.
+
+**/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark {
+    private Request mRequest;
+    private RequestEncoder mEncoder;
+    private ByteArrayOutputStream mOut;
+
+    @Setup
+    public void setup() {
+        NOAAQuery.configure("-suppress-console");
+        mRequest = new Request();
+        mRequest.setStation(SyntheticResponse.STATION);
+        mRequest.setStart(NOAAQuery.DEFAULT_DATE_BEGIN);
+        mRequest.setEnd("20160428 08:38");
+        mRequest.setDatum(NOAAXML.DATUM_MSL);
+        mEncoder = new RequestEncoder();
+        mOut = new ByteArrayOutputStream(1024);
+    }
+
+    @Benchmark
+    public SOAPMessage prepareMessage() {
+        return SaajQuery.prepareMessage(mRequest);
+    }
+
+    @Benchmark
+    public int prepareMessageWriteTo() throws Exception {
+        mOut.reset();
+        SaajQuery.prepareMessage(mRequest).writeTo(mOut);
+        return mOut.size();
+    }
+
+    @Benchmark
+    public int requestEncoder() {
+        return mEncoder.encode(mRequest);
+    }
+}
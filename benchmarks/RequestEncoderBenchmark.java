@@ -0,0 +1,67 @@
+package NOAAsoap;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+
+    Compares RequestEncoder with the SAAJ path (prepareMessage() followed by writeTo()).
+    Reports the time and the bytes allocated per encoded request, after checking that both produce the same envelope.
+
+    usage: RequestEncoderBenchmark [iterations]
+
+**/
+public class RequestEncoderBenchmark {
+    private static final int WARMUP_ITERATIONS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+
+        Request r = new Request();
+        r.setStation("9462620");
+        r.setStart(NOAAQuery.DEFAULT_DATE_BEGIN);
+        r.setEnd("20160428 08:38");
+        r.setDatum(NOAAXML.DATUM_MSL);
+
+        RequestEncoder encoder = new RequestEncoder();
+        ByteArrayOutputStream saajOut = new ByteArrayOutputStream(1024);
+        SaajQuery.prepareMessage(r).writeTo(saajOut);
+        encoder.encode(r);
+        if(!Arrays.equals(saajOut.toByteArray(), encoder.toByteArray())) {
+            System.err.println("[ERROR] RequestEncoder output differs from the SAAJ envelope");
+            System.exit(1);
+        }
+
+        for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runSAAJ(r, saajOut);
+            runEncoder(r, encoder);
+        }
+
+        report("SAAJ prepareMessage+writeTo", iterations, r, saajOut, null);
+        report("RequestEncoder.encode", iterations, r, null, encoder);
+    }
+
+    private static void report(String name, int iterations, Request r, ByteArrayOutputStream saajOut, RequestEncoder encoder) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long sink = 0;
+        for(int i = 0; i < iterations; i++) {
+            sink += (encoder == null) ? runSAAJ(r, saajOut) : runEncoder(r, encoder);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        System.out.printf("%-30s %10.1f ns/op %10.1f B/op  (%d)%n", name, (double)elapsed / iterations, (double)allocated / iterations, sink);
+    }
+
+    private static int runSAAJ(Request r, ByteArrayOutputStream out) throws Exception {
+        out.reset();
+        SaajQuery.prepareMessage(r).writeTo(out);
+        return out.size();
+    }
+
+    private static int runEncoder(Request r, RequestEncoder encoder) {
+        return encoder.encode(r);
+    }
+}
@@ -0,0 +1,126 @@
+package NOAAsoap;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPElement;
+import javax.xml.soap.SOAPMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+
+    Handling a response of 100 to 100,000 items into a CSV file:
+        handleResponse      SAAJ, the message is parsed from its bytes and walked by handleResponse()
+        streamResponse      the streaming parser into a StationWriter, as used by default
+        writeItemNode       only the writing of an already parsed SAAJ message's items
+
+**/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseBenchmark {
+    @Param({"100", "1000", "10000", "100000"})
+    public int items;
+
+    private byte[] mResponse;
+    private File mDirectory;
+    private Request mRequest;
+    private FileDescription mDesc;
+    private MessageFactory mMessageFactory;
+    private MimeHeaders mHeaders;
+    private List<SOAPElement> mItems;
+    private File mItemFile;
+
+    @Setup
+    public void setup() throws Exception {
+        NOAAQuery.configure("-suppress-console");
+        mResponse = SyntheticResponse.build(items);
+        mDirectory = Files.createTempDirectory("ResponseBenchmark").toFile();
+        mRequest = new Request();
+        mRequest.setStation(SyntheticResponse.STATION);
+        mRequest.setDatum(NOAAXML.DATUM_MSL);
+        mDesc = new FileDescription(mDirectory.getPath() + "/", SyntheticResponse.STATION, FileDescription.Format.CSV);
+        mMessageFactory = MessageFactory.newInstance();
+        mHeaders = new MimeHeaders();
+        mHeaders.addHeader("Content-Type", "text/xml; charset=utf-8");
+
+        mItems = new ArrayList<SOAPElement>(items);
+        Iterator<?> response = parse().getSOAPBody().getChildElements();
+        SOAPElement body = (SOAPElement) response.next();
+        for(Iterator<?> children = body.getChildElements(); children.hasNext(); ) {
+            Object child = children.next();
+            if(child instanceof SOAPElement && NOAAXML.NODE_DATA.equals(((SOAPElement) child).getElementName().getLocalName())) {
+                for(Iterator<?> data = ((SOAPElement) child).getChildElements(); data.hasNext(); ) {
+                    Object item = data.next();
+                    if(item instanceof SOAPElement) {
+                        mItems.add((SOAPElement) item);
+                    }
+                }
+            }
+        }
+        mItemFile = new File(mDirectory, "items.dat");
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private SOAPMessage parse() throws Exception {
+        return mMessageFactory.createMessage(mHeaders, new ByteArrayInputStream(mResponse));
+    }
+
+    @Benchmark
+    public void handleResponse() throws Exception {
+        SaajQuery.handleResponse(parse(), mRequest, new FileDescription(mDesc));
+    }
+
+    @Benchmark
+    public void streamResponse() throws Exception {
+        FileDescription desc = new FileDescription(mDesc);
+        desc.addExtensionToFileName();
+        StationWriter writer = new StationWriter(desc, mRequest.getColumns(), true, null);
+        try {
+            ResponseParser.parse(new ByteArrayInputStream(mResponse), writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Benchmark
+    public void writeItemNode() throws Exception {
+        BlockWriter out = new BlockWriter(mItemFile, false, null);
+        try {
+            for(SOAPElement item : mItems) {
+                SaajQuery.writeItemNode(item, out, FileDescription.Format.CSV, NOAAXML.DATUM_MSL);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package NOAAsoap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+
+    Local stand-in for the NOAA WaterLevelVerifiedMonthly service, for load testing without querying NOAA.
+    Answers every getWLVerifiedMonthlyAndMetadata POST with a SyntheticResponse for the requested station, and gzips it if the
+    client accepts gzip. Each response is delayed by latency plus a uniform random jitter, and a share of the requests (the
+    fault rate) is answered with the SOAP fault the service sends when it is throttling (HTTP 500).
+
+    With a capacity set, a request which arrives while capacity requests are already being served is faulted the same way,
+    as the service does when a client sends more concurrent requests than it tolerates.
+
+    The size of a response follows the requested date range (one item per month), unless a fixed number of items is set.
+    Every request's latency (from receiving it to having sent the response) is recorded for the report.
+
+    usage: StandInServer [-port N] [-items N] [-latency MS] [-jitter MS] [-fault-rate F] [-capacity N] [-threads N]
+
+**/
+public class StandInServer {
+    public static final String ARG_PORT = "-port";
+    public static final String ARG_ITEMS = "-items";
+    public static final String ARG_LATENCY = "-latency";
+    public static final String ARG_JITTER = "-jitter";
+    public static final String ARG_FAULT_RATE = "-fault-rate";
+    public static final String ARG_CAPACITY = "-capacity";
+    public static final String ARG_THREADS = "-threads";
+
+    private static final byte[] FAULT = (
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body><soapenv:Fault>" +
+        "<faultcode>soapenv:Server</faultcode><faultstring>Throttled</faultstring><faultactor>StandInServer</faultactor>" +
+        "</soapenv:Fault></soapenv:Body></soapenv:Envelope>").getBytes(StandardCharsets.UTF_8);
+
+    private int mPort = 0;
+    private int mItems = 0;
+    private long mLatencyMillis = 0, mJitterMillis = 0;
+    private double mFaultRate = 0;
+    private int mCapacity = 0;
+    private int mThreads = 256;
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicLong mRequests = new AtomicLong(), mFaults = new AtomicLong(), mBytesSent = new AtomicLong();
+    private long[] mLatencies = new long[1024];
+    private int mLatencyCount = 0;
+
+    public void setPort(int port) {
+        mPort = port;
+    }
+    //0 follows the requested date range
+    public void setItems(int items) {
+        mItems = items;
+    }
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+    public void setJitterMillis(long jitterMillis) {
+        mJitterMillis = jitterMillis;
+    }
+    public void setFaultRate(double faultRate) {
+        mFaultRate = faultRate;
+    }
+    //0 serves any number of concurrent requests
+    public void setCapacity(int capacity) {
+        mCapacity = capacity;
+    }
+    public void setThreads(int threads) {
+        mThreads = threads;
+    }
+
+    /* Applies the server options found in args, returns the arguments which are not server options
+    |  Throws IllegalArgumentException for an option without a valid value
+    |*/
+    public String[] configure(String[] args) {
+        String[] rest = new String[args.length];
+        int count = 0;
+        for(int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean option = ARG_PORT.equalsIgnoreCase(arg) || ARG_ITEMS.equalsIgnoreCase(arg) || ARG_LATENCY.equalsIgnoreCase(arg) ||
+                             ARG_JITTER.equalsIgnoreCase(arg) || ARG_FAULT_RATE.equalsIgnoreCase(arg) || ARG_CAPACITY.equalsIgnoreCase(arg) ||
+                             ARG_THREADS.equalsIgnoreCase(arg);
+            if(!option) {
+                rest[count++] = arg;
+                continue;
+            }
+            if(i + 1 >= args.length) {
+                throw new IllegalArgumentException(arg + " requires a value");
+            }
+            String value = args[++i];
+            try {
+                if(ARG_PORT.equalsIgnoreCase(arg)) {
+                    mPort = Integer.parseInt(value);
+                } else if(ARG_ITEMS.equalsIgnoreCase(arg)) {
+                    mItems = Integer.parseInt(value);
+                } else if(ARG_LATENCY.equalsIgnoreCase(arg)) {
+                    mLatencyMillis = Long.parseLong(value);
+                } else if(ARG_JITTER.equalsIgnoreCase(arg)) {
+                    mJitterMillis = Long.parseLong(value);
+                } else if(ARG_FAULT_RATE.equalsIgnoreCase(arg)) {
+                    mFaultRate = Double.parseDouble(value);
+                } else if(ARG_CAPACITY.equalsIgnoreCase(arg)) {
+                    mCapacity = Integer.parseInt(value);
+                } else {
+                    mThreads = Integer.parseInt(value);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(arg + " could not parse (" + value + ")");
+            }
+        }
+        return Arrays.copyOf(rest, count);
+    }
+
+    public void start() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", mPort), 1024);
+        //handlers sleep out the latency, so every request in flight needs its own thread
+        mExecutor = Executors.newFixedThreadPool(mThreads);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/axis/services/WaterLevelVerifiedMonthly";
+    }
+
+    public long getRequests() {
+        return mRequests.get();
+    }
+    public long getFaults() {
+        return mFaults.get();
+    }
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    //Latency percentile in nanoseconds, p from 0 to 100
+    public synchronized long latencyPercentile(double p) {
+        if(mLatencyCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mLatencies, mLatencyCount);
+        Arrays.sort(sorted);
+        int index = (int)Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        if(mLatencyCount == mLatencies.length) {
+            mLatencies = Arrays.copyOf(mLatencies, mLatencyCount * 2);
+        }
+        mLatencies[mLatencyCount++] = nanos;
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if(!"POST".equals(exchange.getRequestMethod())) {
+                //connection warm up (-prewarm)
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            String request = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+            mRequests.incrementAndGet();
+            boolean overCapacity = mInFlight.incrementAndGet() > mCapacity && mCapacity > 0;
+            try {
+                respond(exchange, request, overCapacity);
+            } finally {
+                mInFlight.decrementAndGet();
+            }
+        } finally {
+            exchange.close();
+            recordLatency(System.nanoTime() - start);
+        }
+    }
+
+    private void respond(HttpExchange exchange, String request, boolean overCapacity) throws IOException {
+        long delay = mLatencyMillis + ((mJitterMillis > 0) ? ThreadLocalRandom.current().nextLong(mJitterMillis + 1) : 0);
+        if(delay > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        byte[] body;
+        int status;
+        if(overCapacity || (mFaultRate > 0 && ThreadLocalRandom.current().nextDouble() < mFaultRate)) {
+            mFaults.incrementAndGet();
+            body = FAULT;
+            status = 500;
+        } else {
+            String station = elementText(request, NOAAXML.ELEM_STATION_ID);
+            int first = NOAAXML.monthKeyOf(elementText(request, NOAAXML.ELEM_DATE_BEGIN));
+            int last = NOAAXML.monthKeyOf(elementText(request, NOAAXML.ELEM_DATE_END));
+            if(first < 0) {
+                first = NOAAXML.monthKey(1960, 1);
+            }
+            int items = (mItems > 0) ? mItems : Math.max(0, last - first + 1);
+            body = SyntheticResponse.build((station == null) ? SyntheticResponse.STATION : station, first, items).getBytes(StandardCharsets.UTF_8);
+            status = 200;
+        }
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if(acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(body);
+            gzip.close();
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+        mBytesSent.addAndGet(body.length);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        byte[] buffer = new byte[1024];
+        int count;
+        while((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    //The text of the first element with the given local name, requests are small and flat so no parser is needed
+    private static String elementText(String xml, String localName) {
+        int start = xml.indexOf("<" + localName + ">");
+        if(start < 0) {
+            return null;
+        }
+        start += localName.length() + 2;
+        int end = xml.indexOf("</" + localName + ">", start);
+        return (end < 0) ? null : xml.substring(start, end);
+    }
+
+    public static void main(String[] args) {
+        StandInServer server = new StandInServer();
+        try {
+            String[] rest = server.configure(args);
+            if(rest.length > 0) {
+                System.out.println("usage: StandInServer [-port N] [-items N] [-latency MS] [-jitter MS] [-fault-rate F] [-capacity N] [-threads N]");
+                return;
+            }
+            server.start();
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+            return;
+        } catch (IOException e) {
+            System.err.println("[ERROR] " + e.toString());
+            return;
+        }
+        System.out.println("Serving on " + server.getEndpoint());
+        System.out.println("Query it with: NOAAQuery <stations> <output> " + NOAAQuery.ARG_ENDPOINT + " " + server.getEndpoint());
+    }
+}
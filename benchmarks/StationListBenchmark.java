@@ -0,0 +1,78 @@
+package NOAAsoap;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+
+    Loading station lists of 1,000 to 1,000,000 rows in the format of stationlist.dat, into a list with loadStationsFromFile(),
+    and streamed one id at a time from the StationSource which feeds the queries.
+
+**/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StationListBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int stations;
+
+    private File mFile;
+    private FileDescription mDesc;
+
+    @Setup
+    public void setup() throws Exception {
+        NOAAQuery.configure("-suppress-console");
+        mFile = Files.createTempFile("StationListBenchmark", ".dat").toFile();
+        Writer out = new FileWriter(mFile);
+        try {
+            for(int i = 0; i < stations; i++) {
+                out.write((9400000 + i) + ", STATION " + i + ", AK, 53.88, -166.53\n");
+            }
+        } finally {
+            out.close();
+        }
+        mDesc = new FileDescription(null, mFile.getPath(), FileDescription.Format.CSV);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public List<String> loadStationsFromFile() throws Exception {
+        return NOAAQuery.loadStationsFromFile(mDesc);
+    }
+
+    @Benchmark
+    public int streamStations() throws Exception {
+        StationSource source = NOAAQuery.openStationSource(mDesc);
+        int count = 0;
+        try {
+            while(source.next() != null) {
+                count++;
+            }
+        } finally {
+            source.close();
+        }
+        return count;
+    }
+}
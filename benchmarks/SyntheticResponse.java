@@ -0,0 +1,79 @@
+package NOAAsoap;
+import java.nio.charset.StandardCharsets;
+
+/**
+
+    Builds getWLVerifiedMonthlyAndMetadata responses of any size for the benchmarks and the stand-in server.
+    Items are consecutive months (from 1000/01 unless another first month is given), each with the values the NOAA service
+    returns for a month. The values depend on the month only, so a month reads the same whatever range it is requested in
+    (eg. a chunked, cached or incremental run can be compared with a full run).
+
+**/
+public class SyntheticResponse {
+    public static final String STATION = "9462620";
+
+    private static final String ENVELOPE_START =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>" +
+        "<ns1:" + NOAAXML.OPERATION + "Response xmlns:ns1=\"" + NOAAXML.NAMESPACE_WSDL + "\">";
+    private static final String ENVELOPE_END = "</ns1:" + NOAAXML.OPERATION + "Response></soapenv:Body></soapenv:Envelope>";
+    private static final int FIRST_MONTH = NOAAXML.monthKey(1000, 1);
+
+    public static byte[] build(int items) {
+        return build(STATION, items).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String build(String station, int items) {
+        return build(station, FIRST_MONTH, items);
+    }
+
+    //firstMonth is a NOAAXML month key
+    public static String build(String station, int firstMonth, int items) {
+        int lastMonth = firstMonth + Math.max(items, 1) - 1;
+        StringBuilder sb = new StringBuilder(512 + items * 220);
+        sb.append(ENVELOPE_START);
+        element(sb, NOAAXML.ELEM_STATION_ID, station);
+        element(sb, NOAAXML.ELEM_STATION_NAME, "UNALASKA");
+        element(sb, NOAAXML.ELEM_LATITUDE, "53.88");
+        element(sb, NOAAXML.ELEM_LONGITUDE, "-166.53");
+        element(sb, NOAAXML.ELEM_STATE, "AK");
+        element(sb, NOAAXML.ELEM_DATA_SOURCE, "USDOC/NOAA/NOS/COOPS");
+        element(sb, NOAAXML.ELEM_DATE_BEGIN, NOAAXML.monthStartToString(firstMonth));
+        element(sb, NOAAXML.ELEM_DATE_END, NOAAXML.monthEndToString(lastMonth));
+        element(sb, NOAAXML.ELEM_DATUM, NOAAXML.DATUM_MSL);
+        element(sb, NOAAXML.ELEM_UNIT, "Meters");
+        element(sb, NOAAXML.ELEM_TIME_ZONE, "GMT");
+        sb.append('<').append(NOAAXML.NODE_DATA).append('>');
+        for(int i = 0; i < items; i++) {
+            int key = firstMonth + i;
+            int year = NOAAXML.monthKeyYear(key);
+            int month = NOAAXML.monthKeyMonth(key);
+            sb.append('<').append(NOAAXML.NODE_ITEM).append('>');
+            element(sb, NOAAXML.ELEM_TIME_STAMP, year + "/" + ((month < 10) ? "0" : "") + month + "/01 00:00");
+            element(sb, NOAAXML.DATUM_MHHW, value(1.8, key));
+            element(sb, NOAAXML.DATUM_MHW, value(1.6, key));
+            element(sb, NOAAXML.DATUM_MSL, value(0.9, key));
+            element(sb, NOAAXML.DATUM_MLW, value(0.3, key));
+            element(sb, NOAAXML.DATUM_MLLW, value(0.0, key));
+            element(sb, NOAAXML.ELEM_HIGHEST, value(2.6, key));
+            element(sb, NOAAXML.ELEM_LOWEST, value(-0.8, key));
+            element(sb, NOAAXML.ELEM_INFERRED, (key % 7 == 0) ? "1" : "0");
+            sb.append("</").append(NOAAXML.NODE_ITEM).append('>');
+        }
+        sb.append("</").append(NOAAXML.NODE_DATA).append('>');
+        sb.append(ENVELOPE_END);
+        return sb.toString();
+    }
+
+    //base plus a variation given by the month alone, to three decimals (as String.format("%.3f") would, without its cost)
+    private static String value(double base, int monthKey) {
+        long thousandths = Math.round(base * 1000) + Math.floorMod(monthKey * 37, 200) - 100;
+        long magnitude = Math.abs(thousandths);
+        long fraction = magnitude % 1000;
+        return ((thousandths < 0) ? "-" : "") + (magnitude / 1000) + "." + ((fraction < 100) ? "0" : "") + ((fraction < 10) ? "0" : "") + fraction;
+    }
+
+    private static void element(StringBuilder sb, String tagName, String value) {
+        sb.append('<').append(tagName).append('>').append(value).append("</").append(tagName).append('>');
+    }
+}
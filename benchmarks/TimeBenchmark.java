@@ -0,0 +1,65 @@
+package NOAAsoap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+
+    The NOAAXML timestamp functions used to build every request, and the codec used on every item of a response.
+    Parsing and formatting into a char[] allocate nothing, compare with -prof gc.
+
+**/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeBenchmark {
+    private char[] mTimeStamp = new char[14];
+    private int mMinute = NOAAXML.minuteKey(2016, 4, 1, 12, 30);
+
+    @Setup
+    public void setup() {
+        NOAAQuery.configure("-suppress-console");
+    }
+
+    @Benchmark
+    public String currentTimeToString() {
+        return NOAAXML.currentTimeToString(NOAAXML.DATABASE_TIMEZONE);
+    }
+
+    @Benchmark
+    public String nMonthsAgoToString() {
+        return NOAAXML.nMonthsAgoToString(NOAAXML.DATABASE_TIMEZONE, 120);
+    }
+
+    @Benchmark
+    public int monthKeyOf() {
+        return NOAAXML.monthKeyOf("2016/04/01 00:00");
+    }
+
+    @Benchmark
+    public int minuteKeyOf() {
+        return NOAAXML.minuteKeyOf("20160401 12:30");
+    }
+
+    @Benchmark
+    public char[] formatTimeStamp() {
+        NOAAXML.formatTimeStamp(mMinute, mTimeStamp, 0);
+        return mTimeStamp;
+    }
+
+    @Benchmark
+    public String monthEndToString() {
+        return NOAAXML.monthEndToString(NOAAXML.monthKeyOfMinute(mMinute));
+    }
+}
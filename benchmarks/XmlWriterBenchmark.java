@@ -0,0 +1,145 @@
+package NOAAsoap;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+
+    Compares the XML row writer (XmlSeriesWriter) with the CSV row writer of StationWriter, both over a BlockWriter, for series
+    of growing length. Reports the time and the bytes allocated by the calling thread per row, and the heap still in use after a
+    collection once every row is written but before the file is closed, which should not grow with the length of the series.
+    Shorter series are written repeatedly, so that every length is timed over the same number of rows.
+    Every XML file is read back first, and must hold one data element per row with the row's date.
+
+    usage: XmlWriterBenchmark [rows] [directory]
+        series of rows / 100, rows / 10 and rows rows are written
+
+**/
+public class XmlWriterBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        File directory = (args.length > 1) ? new File(args[1]) : Files.createTempDirectory("XmlWriterBenchmark").toFile();
+
+        String[] timeStamps = new String[12 * 100];
+        String[] values = new String[timeStamps.length];
+        for(int i = 0; i < timeStamps.length; i++) {
+            timeStamps[i] = String.format("%04d/%02d/01 00:00", 1920 + i / 12, i % 12 + 1);
+            values[i] = String.format("%.3f", 1.5 + Math.sin(i) / 3);
+        }
+
+        File csvFile = new File(directory, "series.dat");
+        File xmlFile = new File(directory, "series.xml");
+        try {
+            for(int i = 0; i < WARMUP_ROUNDS; i++) {
+                writeCsv(csvFile, rows, timeStamps, values, false);
+                writeXml(xmlFile, rows, timeStamps, values, false);
+            }
+            for(int length = Math.max(1, rows / 100); length <= rows; length *= 10) {
+                writeXml(xmlFile, length, timeStamps, values, false);
+                verify(xmlFile, length, timeStamps);
+                double csv = report("CSV", length, rows / length, csvFile, timeStamps, values, false);
+                double xml = report("XML", length, rows / length, xmlFile, timeStamps, values, true);
+                System.out.printf("%-6s %10d rows %10.2f x CSV%n", "", length, xml / csv);
+            }
+        } finally {
+            csvFile.delete();
+            xmlFile.delete();
+        }
+    }
+
+    //Returns the time per row
+    private static double report(String name, int rows, int repeats, File file, String[] timeStamps, String[] values, boolean xml)
+                                    throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for(int i = 0; i < repeats; i++) {
+            if(xml) {
+                writeXml(file, rows, timeStamps, values, false);
+            } else {
+                writeCsv(file, rows, timeStamps, values, false);
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / repeats;
+        allocated = (threads.getThreadAllocatedBytes(threadId) - allocated) / repeats;
+        long retained = xml ? writeXml(file, rows, timeStamps, values, true) : writeCsv(file, rows, timeStamps, values, true);
+        System.out.printf("%-6s %10d rows %10.1f ns/row %10.1f B/row %10d KB heap %10d KB file%n", name, rows, (double)elapsed / rows,
+                          (double)allocated / rows, retained / 1024, file.length() / 1024);
+        return (double)elapsed / rows;
+    }
+
+    //The row writer of StationWriter, returns the heap in use before the file is closed if measured, otherwise 0
+    private static long writeCsv(File file, int rows, String[] timeStamps, String[] values, boolean measure) throws Exception {
+        BlockWriter out = new BlockWriter(file, false, null);
+        StringBuilder csValues = new StringBuilder(32);
+        try {
+            for(int i = 0; i < rows; i++) {
+                csValues.setLength(0);
+                csValues.append(", ").append(values[i % values.length]);
+                out.write(timeStamps[i % timeStamps.length]);
+                out.write(csValues);
+                out.write('\n');
+            }
+            return measure ? usedHeap() : 0;
+        } finally {
+            out.close();
+        }
+    }
+
+    //The XML row writer of StationWriter, returns the heap in use before the file is closed if measured, otherwise 0
+    private static long writeXml(File file, int rows, String[] timeStamps, String[] values, boolean measure) throws Exception {
+        BlockWriter out = new BlockWriter(file, false, null);
+        String[] row = new String[1];
+        try {
+            XmlSeriesWriter xml = new XmlSeriesWriter(out, new String[]{"MSL"});
+            xml.start("9410170");
+            for(int i = 0; i < rows; i++) {
+                row[0] = values[i % values.length];
+                xml.row(timeStamps[i % timeStamps.length], row);
+            }
+            long used = measure ? usedHeap() : 0;
+            xml.end();
+            return used;
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void verify(File file, int rows, String[] timeStamps) throws Exception {
+        InputStream in = new FileInputStream(file);
+        try {
+            XMLStreamReader reader = XMLInputFactory.newDefaultFactory().createXMLStreamReader(in);
+            int row = 0;
+            while(reader.hasNext()) {
+                if(reader.next() == XMLStreamConstants.START_ELEMENT && XmlSeriesWriter.ELEM_DATE.equals(reader.getLocalName())) {
+                    String expected = timeStamps[row % timeStamps.length].substring(0, 10).replace("/", "");
+                    if(!expected.equals(reader.getElementText())) {
+                        System.err.println("[ERROR] Row " + row + " of the XML output has the wrong date");
+                        System.exit(1);
+                    }
+                    row++;
+                }
+            }
+            if(row != rows) {
+                System.err.println("[ERROR] The XML output holds " + row + " rows instead of " + rows);
+                System.exit(1);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}